@@ -0,0 +1,142 @@
+package hellomisterme.artillery_engine;
+
+import hellomisterme.artillery_engine.components.Component;
+import hellomisterme.artillery_engine.rendering.Renderable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An Archetype holds all the entities in an EntityStore that have the same classes of components in the same order.
+ * Their components are packed into one array per position, so a system can loop over, say, every FreeBody of the
+ * archetype without going through each Entity.
+ *
+ * The columns are only valid up to size(). Removing an entity moves the last one into its row.
+ */
+public class Archetype {
+
+	/** The class of the component at each position */
+	public final Class<?>[] types;
+	// the positions of the components that tick and render
+	final int[] tickers, renderers;
+
+	final EntityStore store;
+	Entity[] entities = new Entity[16];
+	Component[][] columns;
+	int count = 0;
+
+	// the archetypes with one more component at the end, or one taken out, found so far
+	private Map<Class<?>, Archetype> added = new HashMap<>();
+	private Archetype[] removed;
+
+	Archetype(EntityStore store, Class<?>[] types) {
+		this.store = store;
+		this.types = types;
+		columns = new Component[types.length][16];
+		removed = new Archetype[types.length];
+		int ticking = 0, rendering = 0;
+		for (Class<?> t : types) {
+			if (Tick.class.isAssignableFrom(t))
+				ticking++;
+			if (Renderable.class.isAssignableFrom(t))
+				rendering++;
+		}
+		tickers = new int[ticking];
+		renderers = new int[rendering];
+		ticking = rendering = 0;
+		for (int p = 0; p < types.length; p++) {
+			if (Tick.class.isAssignableFrom(types[p]))
+				tickers[ticking++] = p;
+			if (Renderable.class.isAssignableFrom(types[p]))
+				renderers[rendering++] = p;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public Entity getEntity(int row) {
+		return entities[row];
+	}
+
+	/**
+	 * @return the components at one position of every entity, packed by row
+	 */
+	public Component[] column(int position) {
+		return columns[position];
+	}
+
+	/**
+	 * @return the first position holding a cls, or -1
+	 */
+	public int indexOf(Class<?> cls) {
+		for (int p = 0; p < types.length; p++)
+			if (cls.isAssignableFrom(types[p]))
+				return p;
+		return -1;
+	}
+
+	/**
+	 * @return the archetype with a cls added at the end
+	 */
+	Archetype with(Class<?> cls) {
+		Archetype a = added.get(cls);
+		if (a == null) {
+			Class<?>[] more = Arrays.copyOf(types, types.length + 1);
+			more[types.length] = cls;
+			a = store.archetype(more);
+			added.put(cls, a);
+		}
+		return a;
+	}
+
+	/**
+	 * @return the archetype with the component at a position taken out
+	 */
+	Archetype without(int position) {
+		Archetype a = removed[position];
+		if (a == null) {
+			Class<?>[] fewer = new Class<?>[types.length - 1];
+			System.arraycopy(types, 0, fewer, 0, position);
+			System.arraycopy(types, position + 1, fewer, position, fewer.length - position);
+			a = store.archetype(fewer);
+			removed[position] = a;
+		}
+		return a;
+	}
+
+	/**
+	 * Puts an entity in the last row, with its components as they are now.
+	 */
+	void add(Entity e) {
+		if (count == entities.length) {
+			int size = count * 2;
+			entities = Arrays.copyOf(entities, size);
+			for (int p = 0; p < columns.length; p++)
+				columns[p] = Arrays.copyOf(columns[p], size);
+		}
+		entities[count] = e;
+		for (int p = 0; p < columns.length; p++)
+			columns[p][count] = e.componentAt(p);
+		e.archetype = this;
+		e.row = count++;
+	}
+
+	void remove(Entity e) {
+		int row = e.row;
+		count--;
+		// move the last one into the gap
+		Entity last = entities[count];
+		entities[row] = last;
+		last.row = row;
+		entities[count] = null;
+		for (int p = 0; p < columns.length; p++) {
+			columns[p][row] = columns[p][count];
+			columns[p][count] = null;
+		}
+		e.archetype = null;
+		e.row = -1;
+	}
+}
@@ -0,0 +1,124 @@
+package hellomisterme.artillery_engine;
+
+import hellomisterme.artillery_engine.behaviors.Behavior;
+import hellomisterme.artillery_engine.components.Component;
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+import hellomisterme.artillery_engine.components.physics.FreeBody;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BehaviorIndex keeps the entities of a World's behaviors up to date as entities come and go and their components
+ * change, so nothing has to hand every entity to every behavior.
+ *
+ * For each archetype it remembers which behaviors require nothing its entities lack, and only those are asked about its
+ * entities. When a component is added or removed, only the behaviors that watch its class are asked again: they drop
+ * the entity before the change and take it back after if they are still compatibleWith it.
+ *
+ * FreeBodies are kept in the World's BodyStore the same way: a body goes in before the behaviors see it, and comes out
+ * after they have let go of it.
+ */
+public class BehaviorIndex implements EntityStore.Listener {
+
+	private static final Behavior[] NONE = new Behavior[0];
+
+	private EntityStore store;
+	private BodyStore bodies;
+	private List<Behavior> behaviors = new ArrayList<>();
+	// the behaviors that match each archetype seen so far
+	private Map<Archetype, Behavior[]> candidates = new HashMap<>();
+
+	public BehaviorIndex(EntityStore store, BodyStore bodies) {
+		this.store = store;
+		this.bodies = bodies;
+		store.listener = this;
+	}
+
+	/**
+	 * Adds a behavior, and gives it the entities already in the store that it wants.
+	 */
+	public void add(Behavior b) {
+		behaviors.add(b);
+		candidates.clear();
+		List<Archetype> archetypes = store.getArchetypes();
+		for (int i = 0; i < archetypes.size(); i++) {
+			Archetype a = archetypes.get(i);
+			if (b.matches(a)) {
+				for (int row = 0; row < a.size(); row++)
+					offer(b, a.getEntity(row));
+			}
+		}
+	}
+
+	/**
+	 * Call after an entity is added to the store.
+	 */
+	public void entityAdded(Entity e) {
+		FreeBody fb = e.getFreeBody();
+		if (fb != null)
+			bodies.add(fb);
+		for (Behavior b : candidatesOf(e.archetype))
+			offer(b, e);
+	}
+
+	/**
+	 * Call before an entity is removed from the store.
+	 */
+	public void entityRemoving(Entity e) {
+		for (Behavior b : candidatesOf(e.archetype))
+			b.removeEntity(e);
+		FreeBody fb = e.getFreeBody();
+		if (fb != null)
+			bodies.remove(fb);
+	}
+
+	@Override
+	public void componentChanging(Entity e, Component c) {
+		for (Behavior b : candidatesOf(e.archetype))
+			if (b.watches(c.getClass()))
+				b.removeEntity(e);
+	}
+
+	@Override
+	public void componentAdded(Entity e, Component c) {
+		if (c instanceof FreeBody)
+			bodies.add((FreeBody) c);
+		for (Behavior b : candidatesOf(e.archetype))
+			if (b.watches(c.getClass()))
+				offer(b, e);
+	}
+
+	@Override
+	public void componentRemoved(Entity e, Component c) {
+		for (Behavior b : candidatesOf(e.archetype))
+			if (b.watches(c.getClass()))
+				offer(b, e);
+		if (c instanceof FreeBody)
+			bodies.remove((FreeBody) c);
+	}
+
+	private static void offer(Behavior b, Entity e) {
+		if (b.compatibleWith(e))
+			b.addEntity(e);
+	}
+
+	private Behavior[] candidatesOf(Archetype a) {
+		Behavior[] found = candidates.get(a);
+		if (found == null) {
+			int n = 0;
+			for (Behavior b : behaviors)
+				if (b.matches(a))
+					n++;
+			found = n == 0 ? NONE : new Behavior[n];
+			n = 0;
+			for (Behavior b : behaviors)
+				if (b.matches(a))
+					found[n++] = b;
+			candidates.put(a, found);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,88 @@
+package hellomisterme.artillery_engine;
+
+import hellomisterme.artillery_engine.components.Component;
+
+import java.util.Arrays;
+
+/**
+ * A CommandBuffer remembers changes to a World's entities (spawning, destroying, adding and removing components) so
+ * they can be made all at once later, when nothing is looping over the entities or the behaviors. The World fills its
+ * own buffer with the entities added and removed while it ticks, and applies it at the end of the tick.
+ *
+ * The commands are kept in parallel arrays that only grow, and are applied in the order they were given.
+ */
+public class CommandBuffer {
+
+	private static final int SPAWN = 0, DESTROY = 1, ADD = 2, REMOVE = 3;
+
+	private int[] commands = new int[16];
+	private Entity[] entities = new Entity[16];
+	private Component[] components = new Component[16];
+	private int count = 0;
+
+	public void spawn(Entity e) {
+		push(SPAWN, e, null);
+	}
+
+	public void destroy(Entity e) {
+		push(DESTROY, e, null);
+	}
+
+	public void addComponent(Entity e, Component c) {
+		push(ADD, e, c);
+	}
+
+	public void removeComponent(Entity e, Component c) {
+		push(REMOVE, e, c);
+	}
+
+	private void push(int command, Entity e, Component c) {
+		if (count == commands.length) {
+			int size = count * 2;
+			commands = Arrays.copyOf(commands, size);
+			entities = Arrays.copyOf(entities, size);
+			components = Arrays.copyOf(components, size);
+		}
+		commands[count] = command;
+		entities[count] = e;
+		components[count] = c;
+		count++;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Makes the changes to a World, then forgets them. Commands given while applying are applied too.
+	 */
+	public void apply(World world) {
+		for (int i = 0; i < count; i++) {
+			Entity e = entities[i];
+			switch (commands[i]) {
+			case SPAWN:
+				world.addEntity(e);
+				break;
+			case DESTROY:
+				world.removeEntity(e);
+				break;
+			case ADD:
+				e.addComponent(components[i]);
+				break;
+			case REMOVE:
+				e.removeComponent(components[i]);
+				break;
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Forgets the commands, letting go of their entities and components.
+	 */
+	public void clear() {
+		Arrays.fill(entities, 0, count, null);
+		Arrays.fill(components, 0, count, null);
+		count = 0;
+	}
+}
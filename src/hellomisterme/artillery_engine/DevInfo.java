@@ -1,5 +1,6 @@
 package hellomisterme.artillery_engine;
 
+import hellomisterme.artillery_engine.components.physics.BodyStore;
 import hellomisterme.artillery_engine.components.physics.FreeBody;
 import hellomisterme.artillery_engine.rendering.Render;
 import hellomisterme.artillery_engine.rendering.Renderable;
@@ -71,5 +72,9 @@ public class DevInfo implements Renderable {
 			lineLocation += fontSize * 2;
 		}
 		g.drawString("e: " + world.entityCount(), xLocation + xOff, yLocation + lineLocation + yOff); // how many entities in the world
+		lineLocation += fontSize;
+		BodyStore bodies = world.getBodies();
+		int asleep = bodies.countAsleep();
+		g.drawString("awake: " + (bodies.size() - asleep) + " asleep: " + asleep, x, y + lineLocation); // how many bodies are asleep
 	}
 }
@@ -1,6 +1,7 @@
 package hellomisterme.artillery_engine;
 
 import hellomisterme.artillery_engine.components.Component;
+import hellomisterme.artillery_engine.components.ComponentType;
 import hellomisterme.artillery_engine.components.physics.FreeBody;
 import hellomisterme.artillery_engine.io.ArteReader;
 import hellomisterme.artillery_engine.io.ArteWriter;
@@ -11,8 +12,8 @@ import hellomisterme.artillery_engine.util.Transform;
 import hellomisterme.artillery_engine.util.Vector;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,7 +27,13 @@ public class Entity implements Renderable, Savable, Tick {
 	private static long totalIDs = 0;
 	private final long id;
 	public Transform transform = new Transform();
-	private List<Component> components = new LinkedList<>(); // has to be a List so Components can require other Components
+	private List<Component> components = new ArrayList<>(); // has to be a List so Components can require other Components
+	// by ComponentType index: the first component that is an instance of each type, and how many are exactly that class
+	private Component[] firstOf = new Component[0];
+	private int[] exactly = new int[0];
+	// where this entity's components are packed while it is in an EntityStore
+	Archetype archetype = null;
+	int row = -1;
 
 	public Entity() {
 		id = totalIDs;
@@ -57,20 +64,35 @@ public class Entity implements Renderable, Savable, Tick {
 		return false;
 	}
 
+	/**
+	 * Tests whether this Entity contains a Component of the class cls, or of a class cls extends
+	 */
 	public boolean hasComponent(Class<? extends Component> cls) {
-		for (Component comp : components)
-			if (comp.getClass().isAssignableFrom(cls))
+		for (int t : ComponentType.of(cls).supertypes)
+			if (t < exactly.length && exactly[t] > 0)
 				return true;
 		return false;
 	}
 
+	/**
+	 * Adds a component, or if the entity's store is ticking, queues it to be added at the end of the tick.
+	 */
 	public void addComponent(Component c) {
 		if (c != null) {
+			if (archetype != null && archetype.store.deferTo != null) {
+				archetype.store.deferTo.addComponent(this, c);
+				return;
+			}
 			if (c.isMutuallyExclusive() && this.hasComponent(c.getClass()))
 				return;
 
+			if (archetype != null)
+				archetype.store.changing(this, c);
 			components.add(c);
+			index(c);
 			c.entity = this;
+			if (archetype != null)
+				archetype.store.added(this, c);
 		}
 	}
 
@@ -84,28 +106,94 @@ public class Entity implements Renderable, Savable, Tick {
 		}
 	}
 
+	/**
+	 * Removes a component, or if the entity's store is ticking, queues it to be removed at the end of the tick.
+	 */
 	public void removeComponent(Component c) {
-		components.remove(c);
+		if (archetype != null && archetype.store.deferTo != null) {
+			archetype.store.deferTo.removeComponent(this, c);
+			return;
+		}
+		int i = components.indexOf(c);
+		if (i != -1)
+			removeComponentAt(i);
 		c.entity = null;
 	}
 
 	public void removeComponent(Class<? extends Component> cls) {
 		if (cls != null) {
-			Iterator<Component> it = components.iterator();
-			while (it.hasNext()) {
-				Component comp = it.next();
-				if (cls.isInstance(comp))
-					it.remove();
+			for (int i = components.size() - 1; i >= 0; i--) {
+				if (!cls.isInstance(components.get(i)))
+					continue;
+				if (archetype != null && archetype.store.deferTo != null)
+					archetype.store.deferTo.removeComponent(this, components.get(i));
+				else
+					removeComponentAt(i);
 			}
 		}
 	}
 
+	private void removeComponentAt(int i) {
+		Component c = components.get(i);
+		if (archetype != null)
+			archetype.store.changing(this, c);
+		components.remove(i);
+		unindex(c);
+		if (archetype != null)
+			archetype.store.removed(this, i, c);
+	}
+
+	private void index(Component c) {
+		ComponentType type = ComponentType.of(c.getClass());
+		if (firstOf.length < ComponentType.count()) {
+			// the supertypes might have been given higher indices than the class
+			firstOf = Arrays.copyOf(firstOf, ComponentType.count());
+			exactly = Arrays.copyOf(exactly, firstOf.length);
+		}
+		exactly[type.index]++;
+		for (int t : type.supertypes)
+			if (firstOf[t] == null)
+				firstOf[t] = c;
+	}
+
+	private void unindex(Component c) {
+		ComponentType type = ComponentType.of(c.getClass());
+		exactly[type.index]--;
+		for (int t : type.supertypes) {
+			if (firstOf[t] == c) {
+				// the next one of this type takes its place
+				firstOf[t] = null;
+				for (Component comp : components) {
+					if (isA(comp, t)) {
+						firstOf[t] = comp;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isA(Component c, int type) {
+		for (int t : ComponentType.of(c.getClass()).supertypes)
+			if (t == type)
+				return true;
+		return false;
+	}
+
+	int componentCount() {
+		return components.size();
+	}
+
+	Component componentAt(int i) {
+		return components.get(i);
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T extends Component> T getComponent(Class<T> cls) {
 		if (cls != null) {
-			for (Component comp : components)
-				if (cls.isInstance(comp))
-					return (T) comp;
+			int t = ComponentType.of(cls).index;
+			if (t < firstOf.length)
+				return (T) firstOf[t];
 		}
 		return null;
 
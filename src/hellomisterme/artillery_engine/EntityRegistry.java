@@ -0,0 +1,195 @@
+package hellomisterme.artillery_engine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * EntityRegistry keeps entities in a dense array in the order they were added, with a map from ID to slot, so that an
+ * entity can be found by its ID without going through all of them.
+ *
+ * Removing an entity leaves a null in its slot instead of moving the others, so the order stays the same and removing
+ * while looping is safe. When the array fills up and at least half of it is empty slots, it is compacted instead of
+ * grown, which moves entities to lower slots but keeps their order. Only add() compacts.
+ *
+ * The map uses open addressing with linear probing over plain long keys.
+ */
+public class EntityRegistry implements Iterable<Entity> {
+
+	private Entity[] slots = new Entity[64];
+	private int used = 0; // slots used so far, including the removed ones
+	private int count = 0;
+
+	// the ID -> slot map, with -1 for an empty place. The length is a power of two.
+	private long[] keys = new long[128];
+	private int[] values = new int[128];
+
+	public EntityRegistry() {
+		Arrays.fill(values, -1);
+	}
+
+	/**
+	 * @return false if the entity was already here
+	 */
+	public boolean add(Entity e) {
+		if (find(e.getID()) != -1)
+			return false;
+		if (used == slots.length) {
+			if (used - count >= slots.length / 2)
+				compact();
+			else
+				slots = Arrays.copyOf(slots, slots.length * 2);
+		}
+		if (count * 2 >= keys.length)
+			rehash(keys.length * 2);
+		slots[used] = e;
+		put(e.getID(), used);
+		used++;
+		count++;
+		return true;
+	}
+
+	/**
+	 * @return false if the entity wasn't here
+	 */
+	public boolean remove(Entity e) {
+		int place = find(e.getID());
+		if (place == -1 || slots[values[place]] != e)
+			return false;
+		slots[values[place]] = null;
+		delete(place);
+		count--;
+		return true;
+	}
+
+	/**
+	 * @return the entity with the ID, or null
+	 */
+	public Entity get(long id) {
+		int place = find(id);
+		return place == -1 ? null : slots[values[place]];
+	}
+
+	public boolean contains(Entity e) {
+		return get(e.getID()) == e;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the number of slots to loop over with slot(), some of which may be null
+	 */
+	public int slots() {
+		return used;
+	}
+
+	/**
+	 * @return the entity in a slot, or null if it was removed
+	 */
+	public Entity slot(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * Moves the entities down over the removed ones, keeping their order.
+	 */
+	private void compact() {
+		int to = 0;
+		for (int from = 0; from < used; from++) {
+			Entity e = slots[from];
+			if (e != null) {
+				slots[to] = e;
+				values[find(e.getID())] = to;
+				to++;
+			}
+		}
+		Arrays.fill(slots, to, used, null);
+		used = to;
+	}
+
+	private int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+	}
+
+	/**
+	 * @return the place of the ID in the map, or -1
+	 */
+	private int find(long id) {
+		int mask = keys.length - 1;
+		for (int i = hash(id); values[i] != -1; i = (i + 1) & mask)
+			if (keys[i] == id)
+				return i;
+		return -1;
+	}
+
+	private void put(long id, int slot) {
+		int mask = keys.length - 1;
+		int i = hash(id);
+		while (values[i] != -1)
+			i = (i + 1) & mask;
+		keys[i] = id;
+		values[i] = slot;
+	}
+
+	/**
+	 * Empties a place in the map, moving back the entries after it that would otherwise not be found anymore.
+	 */
+	private void delete(int place) {
+		int mask = keys.length - 1;
+		int gap = place;
+		for (int i = (place + 1) & mask; values[i] != -1; i = (i + 1) & mask) {
+			int home = hash(keys[i]);
+			// the entry can fill the gap if its home isn't between the gap and where it is now
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		values[gap] = -1;
+	}
+
+	private void rehash(int size) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[size];
+		values = new int[size];
+		Arrays.fill(values, -1);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldValues[i] != -1)
+				put(oldKeys[i], oldValues[i]);
+	}
+
+	/**
+	 * Goes through the entities in the order they were added, skipping removed ones.
+	 */
+	@Override
+	public Iterator<Entity> iterator() {
+		return new Iterator<Entity>() {
+			private int next = skip(0);
+
+			private int skip(int i) {
+				while (i < used && slots[i] == null)
+					i++;
+				return i;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < used;
+			}
+
+			@Override
+			public Entity next() {
+				if (next >= used)
+					throw new NoSuchElementException();
+				Entity e = slots[next];
+				next = skip(next + 1);
+				return e;
+			}
+		};
+	}
+}
@@ -0,0 +1,189 @@
+package hellomisterme.artillery_engine;
+
+import hellomisterme.artillery_engine.components.Component;
+import hellomisterme.artillery_engine.rendering.Render;
+import hellomisterme.artillery_engine.rendering.Renderable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EntityStore sorts entities into Archetypes by the classes of their components, so that systems can loop over the
+ * packed components of every entity that has the ones they need, archetype by archetype.
+ *
+ * Entity keeps working as before, and tells its store when its components change, which moves it to another
+ * archetype. The archetypes are found by adding or taking out one class at a time, and each one remembers where that
+ * leads, so a change is usually one map lookup.
+ *
+ * While deferTo is set, components added to or removed from the store's entities are queued there instead, so that
+ * no entity moves while the archetypes are being looped over. Otherwise its components might tick twice or not at all.
+ *
+ * A Listener hears about every component added to or removed from an entity in the store, so it doesn't have to look
+ * through the entities for changes.
+ */
+public class EntityStore {
+
+	/** Hears about the components of the entities in a store changing */
+	public interface Listener {
+		/** Called before a component is added to or removed from an entity, while it still has its old components */
+		public void componentChanging(Entity e, Component c);
+
+		/** Called after a component is added, with the entity in its new archetype */
+		public void componentAdded(Entity e, Component c);
+
+		/** Called after a component is removed, with the entity in its new archetype */
+		public void componentRemoved(Entity e, Component c);
+	}
+
+	public Listener listener = null;
+
+	/** Where component changes go while the store's entities are being looped over, or null to make them right away */
+	public CommandBuffer deferTo = null;
+
+	private Map<List<Class<?>>, Archetype> byTypes = new HashMap<>();
+	private List<Archetype> archetypes = new ArrayList<>();
+	private Archetype empty;
+	private int count = 0;
+
+	public EntityStore() {
+		empty = archetype(new Class<?>[0]);
+	}
+
+	/**
+	 * @return the archetype for these classes, made if there isn't one yet
+	 */
+	Archetype archetype(Class<?>[] types) {
+		List<Class<?>> key = Arrays.asList(types);
+		Archetype a = byTypes.get(key);
+		if (a == null) {
+			a = new Archetype(this, types);
+			byTypes.put(key, a);
+			archetypes.add(a);
+		}
+		return a;
+	}
+
+	public void add(Entity e) {
+		if (e.archetype != null)
+			return;
+		find(e).add(e);
+		count++;
+	}
+
+	public void remove(Entity e) {
+		if (e.archetype == null || e.archetype.store != this)
+			return;
+		e.archetype.remove(e);
+		count--;
+	}
+
+	public boolean contains(Entity e) {
+		return e.archetype != null && e.archetype.store == this;
+	}
+
+	void changing(Entity e, Component c) {
+		if (listener != null)
+			listener.componentChanging(e, c);
+	}
+
+	/**
+	 * Moves an entity that got a component at the end.
+	 */
+	void added(Entity e, Component c) {
+		Archetype a = e.archetype;
+		a.remove(e);
+		a.with(c.getClass()).add(e);
+		if (listener != null)
+			listener.componentAdded(e, c);
+	}
+
+	/**
+	 * Moves an entity that lost a component at a position.
+	 */
+	void removed(Entity e, int position, Component c) {
+		Archetype a = e.archetype;
+		a.remove(e);
+		a.without(position).add(e);
+		if (listener != null)
+			listener.componentRemoved(e, c);
+	}
+
+	private Archetype find(Entity e) {
+		Archetype a = empty;
+		for (int p = 0; p < e.componentCount(); p++)
+			a = a.with(e.componentAt(p).getClass());
+		return a;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return every archetype made so far, including empty ones
+	 */
+	public List<Archetype> getArchetypes() {
+		return archetypes;
+	}
+
+	/**
+	 * Finds the archetypes with at least one component of each of the classes.
+	 *
+	 * @param result cleared, then filled with the archetypes
+	 */
+	public void archetypesWith(List<Archetype> result, Class<?>... classes) {
+		result.clear();
+		for (int i = 0; i < archetypes.size(); i++) {
+			Archetype a = archetypes.get(i);
+			boolean all = true;
+			for (Class<?> cls : classes) {
+				if (a.indexOf(cls) == -1) {
+					all = false;
+					break;
+				}
+			}
+			if (all)
+				result.add(a);
+		}
+	}
+
+	/**
+	 * Ticks every component that ticks, one column at a time. In each archetype, in the order they were made, the first
+	 * ticking component of every entity ticks, from the last row to the first, then the second one of every entity, and
+	 * so on. An entity's components still tick in their order, but no longer all together: one entity's second component
+	 * ticks after every other entity's first. Nothing should rely on another entity's components having ticked yet.
+	 */
+	public void tick() {
+		for (int i = 0; i < archetypes.size(); i++) {
+			Archetype a = archetypes.get(i);
+			for (int p : a.tickers) {
+				// backwards, so that an entity leaving the archetype doesn't make the one moved into its row get skipped
+				for (int row = a.count - 1; row >= 0; row--)
+					((Tick) a.columns[p][row]).tick();
+			}
+		}
+	}
+
+	public void render(Render render) {
+		for (int i = 0; i < archetypes.size(); i++) {
+			Archetype a = archetypes.get(i);
+			for (int p : a.renderers) {
+				for (int row = a.count - 1; row >= 0; row--)
+					((Renderable) a.columns[p][row]).render(render);
+			}
+		}
+	}
+
+	public void devmodeRender(Render render) {
+		for (int i = 0; i < archetypes.size(); i++) {
+			Archetype a = archetypes.get(i);
+			for (int p : a.renderers) {
+				for (int row = a.count - 1; row >= 0; row--)
+					((Renderable) a.columns[p][row]).devmodeRender(render);
+			}
+		}
+	}
+}
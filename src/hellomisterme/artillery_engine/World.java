@@ -1,10 +1,17 @@
 package hellomisterme.artillery_engine;
 
+import hellomisterme.artillery_engine.behaviors.BarnesHutGravity;
 import hellomisterme.artillery_engine.behaviors.Behavior;
 import hellomisterme.artillery_engine.behaviors.Collision;
 import hellomisterme.artillery_engine.behaviors.Gravity;
 import hellomisterme.artillery_engine.components.Camera;
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+import hellomisterme.artillery_engine.components.physics.ForceField;
 import hellomisterme.artillery_engine.components.physics.FreeBody;
+import hellomisterme.artillery_engine.components.physics.HitList;
+import hellomisterme.artillery_engine.components.physics.KeplerRails;
+import hellomisterme.artillery_engine.components.physics.Leapfrog;
+import hellomisterme.artillery_engine.components.physics.SleepIslands;
 import hellomisterme.artillery_engine.geometry.Circle;
 import hellomisterme.artillery_engine.io.ArteReader;
 import hellomisterme.artillery_engine.io.ArteWriter;
@@ -15,8 +22,8 @@ import hellomisterme.artillery_engine.rendering.Renderable;
 import hellomisterme.artillery_engine.util.Vector;
 
 import java.awt.Dimension;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * World keeps track of objects in the game.
@@ -29,8 +36,14 @@ public class World implements Tick, Savable, Renderable {
 	private String name = "New Game";
 	private Dimension bounds;
 	
-	private Set<Entity> entities = new HashSet<>();
-	private Set<Behavior> behaviors = new HashSet<>();
+	private EntityRegistry entities = new EntityRegistry(); // in the order they were added
+	private EntityStore store = new EntityStore(); // the same entities, packed by archetype for ticking and rendering
+	private BodyStore bodies = new BodyStore();
+	private BehaviorIndex behaviorIndex = new BehaviorIndex(store, bodies); // hands the entities to the behaviors and bodies
+	private CommandBuffer commands = new CommandBuffer(); // changes put off until the end of the tick
+	private boolean ticking = false;
+	private List<Behavior> behaviors = new ArrayList<>(); // a List because behaviors run in order
+	private Collision collision; // also answers the queries
 	
 	private Camera camera = new Camera();
 	private Entity player;
@@ -88,13 +101,14 @@ public class World implements Tick, Savable, Renderable {
 		addEntity(circle2);
 		*/
 		
-		behaviors.add(new Gravity());
-		behaviors.add(new Collision());
-		
-		for (Behavior b : behaviors) {
-			b.addEntity(circle1);
-			b.addEntity(circle2);
-		}
+		Gravity gravity = new BarnesHutGravity(bodies, BarnesHutGravity.DEFAULT_THETA); // use new Gravity(bodies) for exact (but O(n^2)) gravity
+		addBehavior(gravity);
+		bodies.addField(gravity);
+		bodies.integrator = new Leapfrog(); // keeps orbits stable, for the same cost as Euler
+		bodies.rails = new KeplerRails();
+		bodies.sleep = new SleepIslands();
+		collision = new Collision(bodies);
+		addBehavior(collision);
 
 		/*
 		Entity planet2 = new Entity(new Component[] { new Planet() });
@@ -106,21 +120,41 @@ public class World implements Tick, Savable, Renderable {
 	
 	@Override
 	public void tick() {
-		for (Entity e : entities)
-			e.tick();
-		
-		for (Behavior b : behaviors)
-			b.run();
-		
-		// if the addbaddie key is pressed
-		if (Keyboard.Controls.ADDBADDIE.pressed()) {
-			if (baddieOrdered == false) { // if the key was up before
-				addBaddie();
-				baddieOrdered = true; // remember that the key was pressed
+		ticking = true;
+		store.deferTo = commands;
+		try {
+			// by archetype and component class rather than entity by entity, see EntityStore.tick()
+			store.tick();
+			
+			// all the packed FreeBodies move at once, then the behaviors see their new positions
+			bodies.integrate();
+			
+			// by index, so that ticking doesn't make an iterator
+			for (int i = 0; i < behaviors.size(); i++) {
+				Behavior b = behaviors.get(i);
+				if (!(b instanceof ForceField)) // force fields are run by the integrator
+					b.run();
 			}
-		} else { // key not pressed
-			baddieOrdered = false;
+			
+			// collisions have been reported by now, so it's known which bodies are touching
+			if (bodies.sleep != null)
+				bodies.sleep.update(bodies);
+			
+			// if the addbaddie key is pressed
+			if (Keyboard.Controls.ADDBADDIE.pressed()) {
+				if (baddieOrdered == false) { // if the key was up before
+					addBaddie();
+					baddieOrdered = true; // remember that the key was pressed
+				}
+			} else { // key not pressed
+				baddieOrdered = false;
+			}
+		} finally {
+			// nothing is looping over the entities anymore, even if something threw
+			ticking = false;
+			store.deferTo = null;
 		}
+		commands.apply(this);
 	}
 	
 	public void addBaddie() {
@@ -129,41 +163,124 @@ public class World implements Tick, Savable, Renderable {
 		circle.transform.position.x = Game.RAND.nextDouble() * 2000 - 1000 + camera.globalPosition().x;
 		circle.transform.position.y = Game.RAND.nextDouble() * 1000 - 500 + camera.globalPosition().y;
 		addEntity(circle);
-		for (Behavior b : behaviors)
-			b.addEntity(circle);
 	}
 
 	@Override
 	public void render(Render render) {
-		for (Entity e : entities) {
-			e.render(render);
-		}
+		store.render(render);
 	}
 	
 	@Override
 	public void devmodeRender(Render render) {
-		for (Entity e : entities) {
-			e.devmodeRender(render);
-		}
+		store.devmodeRender(render);
 	}
 	
+	/**
+	 * Adds an entity, or if the World is ticking, queues it to be added at the end of the tick.
+	 */
 	public void addEntity(Entity e) {
-		entities.add(e);
+		if (ticking) {
+			commands.spawn(e);
+			return;
+		}
+		if (!entities.add(e))
+			return; // already here
+		store.add(e);
+		behaviorIndex.entityAdded(e);
 	}
 	
-	public Entity getEntity(int entityID) {
-		for (Entity e : entities) {
-			if (e.getID() == entityID)
-				return e;
-		}
-		return null;
+	public Entity getEntity(long entityID) {
+		return entities.get(entityID);
 	}
 	
+	/**
+	 * Removes an entity, or if the World is ticking, queues it to be removed at the end of the tick.
+	 */
 	public void removeEntity(Entity e) {
-		entities.remove(e);
-		for (Behavior s : behaviors) {
-			s.addEntity(e);
+		if (ticking) {
+			commands.destroy(e);
+			return;
 		}
+		if (!entities.remove(e))
+			return;
+		behaviorIndex.entityRemoving(e);
+		store.remove(e);
+	}
+	
+	/**
+	 * Adds a behavior to run every tick, after the ones already added. It gets the entities it wants, now and as they
+	 * change.
+	 */
+	public void addBehavior(Behavior b) {
+		behaviors.add(b);
+		behaviorIndex.add(b);
+	}
+	
+	/** @return the packed physics state of the FreeBodies in this World */
+	public BodyStore getBodies() {
+		return bodies;
+	}
+	
+	/**
+	 * @return the changes waiting for the end of the tick, including the components added to or removed from entities
+	 * while ticking
+	 */
+	public CommandBuffer getCommands() {
+		return commands;
+	}
+	
+	/** @return the entities of this World, in the order they were added */
+	public EntityRegistry getEntities() {
+		return entities;
+	}
+	
+	/** @return the entities of this World, packed by archetype */
+	public EntityStore getStore() {
+		return store;
+	}
+	
+	public Collision getCollision() {
+		return collision;
+	}
+	
+	/**
+	 * Finds the entities hit by a line, closest first. See Collision.raycast.
+	 */
+	public void raycast(double x1, double y1, double x2, double y2, HitList hits) {
+		if (collision == null)
+			hits.clear();
+		else
+			collision.raycast(x1, y1, x2, y2, hits);
+	}
+	
+	/**
+	 * Finds the entities a moving circle would touch, closest first. See Collision.circleCast.
+	 */
+	public void circleCast(double x1, double y1, double x2, double y2, double radius, HitList hits) {
+		if (collision == null)
+			hits.clear();
+		else
+			collision.circleCast(x1, y1, x2, y2, radius, hits);
+	}
+	
+	/**
+	 * Finds the entities overlapping a circle, closest first. See Collision.overlapCircle.
+	 */
+	public void overlapCircle(double x, double y, double radius, HitList hits) {
+		if (collision == null)
+			hits.clear();
+		else
+			collision.overlapCircle(x, y, radius, hits);
+	}
+	
+	/**
+	 * Finds the entities whose bounding boxes overlap a box, closest to its center first. See Collision.queryAABB.
+	 */
+	public void queryAABB(double left, double top, double right, double bottom, HitList hits) {
+		if (collision == null)
+			hits.clear();
+		else
+			collision.queryAABB(left, top, right, bottom, hits);
 	}
 	
 	public int entityCount() {
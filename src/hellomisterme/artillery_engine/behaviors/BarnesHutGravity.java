@@ -0,0 +1,247 @@
+package hellomisterme.artillery_engine.behaviors;
+
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+
+import java.util.Arrays;
+
+/**
+ * BarnesHutGravity approximates Gravity in O(n log n) time instead of O(n^2).
+ *
+ * Every tick the pullers are sorted into a quadtree where each node knows the total mass and center of mass of the bodies inside it.
+ * When a node is far enough away from a pullee, the whole node pulls as if it were a single body at its center of mass.
+ * "Far enough" is decided by the opening angle theta: a node of width s at distance d is used as a whole if s / d < theta.
+ * A node that the pullee is inside of is never far enough, however big theta is.
+ * A theta of 0 gives the same result as the brute force Gravity, bigger values are faster but less accurate.
+ *
+ * The tree is stored in flat arrays which are reused between ticks, so rebuilding it doesn't create any garbage, and it
+ * is built straight from the packed positions in the BodyStore.
+ */
+public class BarnesHutGravity extends Gravity {
+
+	/** A theta of 0.5 is the usual compromise between speed and accuracy */
+	public static final double DEFAULT_THETA = 0.5;
+
+	/** Nodes smaller than this stop splitting, so bodies at (almost) the same position can't make the tree infinitely deep */
+	private static final double MIN_HALF_WIDTH = 1e-6;
+
+	private static final int EMPTY = -1;
+
+	/** The opening angle. Smaller is more accurate, bigger is faster. */
+	public double theta;
+
+	// the quadtree. Leaves refer to bodies by their BodyStore slot.
+	// The children of a node are always stored next to each other, so a node only needs the index of its first child.
+	private double[] nodeMass, nodeX, nodeY, centerX, centerY, halfWidth;
+	private int[] firstChild, nodeBody;
+	private int nodeCount = 0;
+	// the next body in the same leaf, by slot. Only leaves too small to split hold more than one.
+	private int[] nextBody = new int[16];
+
+	private int[] stack = new int[64];
+
+	public BarnesHutGravity(BodyStore bodies) {
+		this(bodies, DEFAULT_THETA);
+	}
+
+	public BarnesHutGravity(BodyStore bodies, double theta) {
+		super(bodies);
+		this.theta = theta;
+		allocateNodes(64);
+	}
+
+	@Override
+	public void run() {
+		buildTree();
+		if (nodeCount == 0)
+			return;
+		int count = bodies.size();
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass, ax = bodies.ax, ay = bodies.ay;
+		int[] flags = bodies.flags;
+		double theta2 = theta * theta;
+		for (int pulled = 0; pulled < count; pulled++) {
+			if ((flags[pulled] & BodyStore.PULLED) != 0 && mass[pulled] != 0) {
+				double px = x[pulled], py = y[pulled];
+				double accX = 0, accY = 0;
+				int top = 0;
+				stack[top++] = 0;
+				while (top > 0) {
+					int node = stack[--top];
+					if (nodeMass[node] == 0)
+						continue;
+					if (firstChild[node] == EMPTY) {
+						// the bodies of a leaf pull one by one, so a body in it doesn't pull itself
+						for (int body = nodeBody[node]; body != EMPTY; body = nextBody[body]) {
+							if (body == pulled)
+								continue;
+							double xDist = x[body] - px;
+							double yDist = y[body] - py;
+							double dist2 = xDist * xDist + yDist * yDist;
+							if (dist2 != 0) {
+								double a = mass[body] / (dist2 * Math.sqrt(dist2));
+								accX += xDist * a;
+								accY += yDist * a;
+							}
+						}
+						continue;
+					}
+					double xDist = nodeX[node] - px;
+					double yDist = nodeY[node] - py;
+					double dist2 = xDist * xDist + yDist * yDist;
+					double half = halfWidth[node], width = half * 2;
+					// a node around the pullee is always opened, or the pullee would be pulled by its own mass
+					boolean around = Math.abs(px - centerX[node]) <= half && Math.abs(py - centerY[node]) <= half;
+					if (!around && width * width < theta2 * dist2) {
+						if (dist2 != 0) {
+							// law of gravitation, same as Gravity
+							double a = nodeMass[node] / (dist2 * Math.sqrt(dist2));
+							accX += xDist * a;
+							accY += yDist * a;
+						}
+					} else {
+						if (top + 4 > stack.length)
+							stack = Arrays.copyOf(stack, stack.length * 2);
+						int child = firstChild[node];
+						stack[top++] = child;
+						stack[top++] = child + 1;
+						stack[top++] = child + 2;
+						stack[top++] = child + 3;
+					}
+				}
+				ax[pulled] += accX;
+				ay[pulled] += accY;
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the quadtree from the current puller positions
+	 */
+	private void buildTree() {
+		nodeCount = 0;
+		int count = bodies.size();
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		int[] flags = bodies.flags;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		boolean anyPullers = false;
+		for (int i = 0; i < count; i++) {
+			if ((flags[i] & BodyStore.PULLS) != 0 && mass[i] != 0) {
+				anyPullers = true;
+				minX = Math.min(minX, x[i]);
+				minY = Math.min(minY, y[i]);
+				maxX = Math.max(maxX, x[i]);
+				maxY = Math.max(maxY, y[i]);
+			}
+		}
+		if (!anyPullers)
+			return;
+		if (nextBody.length < count)
+			nextBody = new int[bodies.x.length];
+
+		// the root is a square around all the pullers, a little bigger so that no body lies exactly on its edge
+		double half = Math.max(maxX - minX, maxY - minY) * 0.5 + 1;
+		newNode((minX + maxX) * 0.5, (minY + maxY) * 0.5, half);
+		for (int i = 0; i < count; i++) {
+			if ((flags[i] & BodyStore.PULLS) != 0 && mass[i] != 0)
+				insert(i);
+		}
+
+		// turn the mass-weighted position sums into centers of mass
+		for (int node = 0; node < nodeCount; node++) {
+			if (nodeMass[node] != 0) {
+				nodeX[node] /= nodeMass[node];
+				nodeY[node] /= nodeMass[node];
+			}
+		}
+	}
+
+	private void insert(int body) {
+		int node = 0;
+		while (true) {
+			if (firstChild[node] != EMPTY) {
+				// internal node, keep going down
+				accumulate(node, body);
+				node = firstChild[node] + quadrant(node, bodies.x[body], bodies.y[body]);
+			} else if (nodeBody[node] == EMPTY) {
+				// empty leaf, the body goes here
+				nodeBody[node] = body;
+				nextBody[body] = EMPTY;
+				accumulate(node, body);
+				return;
+			} else if (halfWidth[node] < MIN_HALF_WIDTH) {
+				// too small to split, the bodies here share the leaf
+				nextBody[body] = nodeBody[node];
+				nodeBody[node] = body;
+				accumulate(node, body);
+				return;
+			} else {
+				// occupied leaf, split it and push the old body down a level, then try again
+				int existing = nodeBody[node];
+				nodeBody[node] = EMPTY;
+				split(node);
+				int child = firstChild[node] + quadrant(node, bodies.x[existing], bodies.y[existing]);
+				nodeBody[child] = existing;
+				accumulate(child, existing);
+			}
+		}
+	}
+
+	private void accumulate(int node, int body) {
+		double m = bodies.mass[body];
+		nodeMass[node] += m;
+		nodeX[node] += bodies.x[body] * m;
+		nodeY[node] += bodies.y[body] * m;
+	}
+
+	private int quadrant(int node, double x, double y) {
+		return (x < centerX[node] ? 0 : 1) + (y < centerY[node] ? 0 : 2);
+	}
+
+	private void split(int node) {
+		double half = halfWidth[node] * 0.5;
+		double x = centerX[node];
+		double y = centerY[node];
+		firstChild[node] = newNode(x - half, y - half, half);
+		newNode(x + half, y - half, half);
+		newNode(x - half, y + half, half);
+		newNode(x + half, y + half, half);
+	}
+
+	private int newNode(double x, double y, double half) {
+		if (nodeCount == nodeMass.length)
+			allocateNodes(nodeCount * 2);
+		int node = nodeCount++;
+		nodeMass[node] = 0;
+		nodeX[node] = 0;
+		nodeY[node] = 0;
+		centerX[node] = x;
+		centerY[node] = y;
+		halfWidth[node] = half;
+		firstChild[node] = EMPTY;
+		nodeBody[node] = EMPTY;
+		return node;
+	}
+
+	private void allocateNodes(int size) {
+		if (nodeMass == null) {
+			nodeMass = new double[size];
+			nodeX = new double[size];
+			nodeY = new double[size];
+			centerX = new double[size];
+			centerY = new double[size];
+			halfWidth = new double[size];
+			firstChild = new int[size];
+			nodeBody = new int[size];
+		} else {
+			nodeMass = Arrays.copyOf(nodeMass, size);
+			nodeX = Arrays.copyOf(nodeX, size);
+			nodeY = Arrays.copyOf(nodeY, size);
+			centerX = Arrays.copyOf(centerX, size);
+			centerY = Arrays.copyOf(centerY, size);
+			halfWidth = Arrays.copyOf(halfWidth, size);
+			firstChild = Arrays.copyOf(firstChild, size);
+			nodeBody = Arrays.copyOf(nodeBody, size);
+		}
+	}
+}
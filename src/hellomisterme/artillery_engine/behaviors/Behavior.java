@@ -1,11 +1,20 @@
 package hellomisterme.artillery_engine.behaviors;
 
+import hellomisterme.artillery_engine.Archetype;
 import hellomisterme.artillery_engine.Entity;
 
 public abstract class Behavior {
 
 	public static final String out = null;
 
+	/**
+	 * The World only offers this behavior entities that have a component of each of these classes, and compatibleWith()
+	 * decides the rest. Empty means every entity is offered.
+	 */
+	protected Class<?>[] requires = {};
+	/** Other classes of components that compatibleWith() looks at, so adding or removing one checks the entity again */
+	protected Class<?>[] watches = {};
+
 	public abstract boolean compatibleWith(Entity e);
 
 	public abstract boolean contains(Entity e);
@@ -15,4 +24,27 @@ public abstract class Behavior {
 	public abstract void removeEntity(Entity e);
 
 	public abstract void run();
+
+	/**
+	 * @return whether the entities of an archetype have everything this behavior requires
+	 */
+	public boolean matches(Archetype a) {
+		for (Class<?> cls : requires)
+			if (a.indexOf(cls) == -1)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return whether adding or removing a component of this class can change which entities this behavior wants
+	 */
+	public boolean watches(Class<?> cls) {
+		for (Class<?> r : requires)
+			if (r.isAssignableFrom(cls))
+				return true;
+		for (Class<?> w : watches)
+			if (w.isAssignableFrom(cls))
+				return true;
+		return false;
+	}
 }
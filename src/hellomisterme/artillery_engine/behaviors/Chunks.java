@@ -0,0 +1,51 @@
+package hellomisterme.artillery_engine.behaviors;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Chunks runs some work over a range of indices on a ForkJoinPool, a chunk at a time. The range is halved until the
+ * pieces are one chunk long, always on a chunk boundary, so which indices end up together only depends on the range and
+ * the chunk size, not on how many threads there are.
+ */
+final class Chunks {
+
+	/** Does the work for the indices from (inclusive) to to (exclusive) */
+	interface Work {
+		public void run(int from, int to);
+	}
+
+	private Chunks() {
+	}
+
+	/**
+	 * Runs the work over the range on the pool, and returns when all of it is done.
+	 */
+	static void invoke(ForkJoinPool pool, int from, int to, int chunkSize, Work work) {
+		pool.invoke(new Split(from, to, chunkSize, work));
+	}
+
+	private static class Split extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to, chunkSize;
+		private final Work work;
+
+		Split(int from, int to, int chunkSize, Work work) {
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+			this.work = work;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				work.run(from, to);
+			} else {
+				int middle = from + Math.max((to - from) / chunkSize / 2, 1) * chunkSize;
+				invokeAll(new Split(from, middle, chunkSize, work), new Split(middle, to, chunkSize, work));
+			}
+		}
+	}
+}
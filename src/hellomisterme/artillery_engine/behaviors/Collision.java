@@ -1,139 +1,828 @@
 package hellomisterme.artillery_engine.behaviors;
 
 import hellomisterme.artillery_engine.Entity;
-import hellomisterme.artillery_engine.components.physics.CollisionResult;
+import hellomisterme.artillery_engine.components.IngameComponent;
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+import hellomisterme.artillery_engine.components.physics.ContactBuffer;
+import hellomisterme.artillery_engine.components.physics.ContactCache;
 import hellomisterme.artillery_engine.components.physics.FreeBody;
+import hellomisterme.artillery_engine.components.physics.HitList;
+import hellomisterme.artillery_engine.geometry.AABB;
+import hellomisterme.artillery_engine.geometry.AxisCache;
+import hellomisterme.artillery_engine.geometry.Broadphase;
 import hellomisterme.artillery_engine.geometry.Circle;
+import hellomisterme.artillery_engine.geometry.DynamicAABBTree;
+import hellomisterme.artillery_engine.geometry.PairList;
+import hellomisterme.artillery_engine.geometry.Polygon;
 import hellomisterme.artillery_engine.util.Vector;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Collision pushes apart the hitboxes of entities that overlap, if their collision categories and masks let them. An
+ * entity's hitbox is its Circle, or its Polygon if it has no Circle. A Broadphase finds the pairs whose bounding boxes
+ * overlap, and only those are checked exactly, with the test for their pair of shapes. The overlapping ones go into a
+ * ContactBuffer, which is then resolved. None of this creates objects, so dense clusters don't make garbage.
+ *
+ * Resolving a contact pushes the bodies apart, and then a few rounds of impulses stop them from moving into each other
+ * (or bounce them off, if they hit hard enough). Each contact's impulse is remembered in a ContactCache for the next
+ * tick, so bodies resting on each other start from the impulse that held them last time and settle instead of jittering.
+ *
+ * For pairs with a polygon, the axis that separated them is remembered in an AxisCache, so a pair that stays apart is
+ * usually done after checking one axis.
+ *
+ * Bodies flagged as bullets could pass right through something within one tick, so for them the whole path since the
+ * last tick is checked. Their boxes cover the path, and each bullet is stopped at the earliest impact along it: the
+ * bullet is put back where it was at that moment, and bounces off the other body as it was then. The other body keeps
+ * its place, unless it is a bullet that hit this one first too. Only bullets that are circles hitting circles are
+ * checked this way, the others are checked like any other body.
+ */
 public class Collision extends Behavior {
 
-	/** A Holder holds information about an entity for efficient data access */
-	private class Holder {
-		FreeBody body;
-		Circle circle;
-		Holder next;
+	/**
+	 * Finds the pairs that might collide, like DynamicAABBTree, SpatialHash or SweepAndPrune. If null, every pair is
+	 * checked. The tree is the default because it copes best with planets and debris in the same scene.
+	 */
+	public Broadphase broadphase = new DynamicAABBTree();
 
-		public Holder(FreeBody body, Circle circle, Holder next) {
-			this.body = body;
-			this.circle = circle;
-		}
+	/** How much of their speed towards each other bodies keep when they bounce off, from 0 to 1 */
+	public double restitution = 1;
+	/** Bodies meeting slower than this don't bounce, they come to rest against each other */
+	public double restingSpeed = 0.1;
+	/** How many rounds of impulses are applied to the contacts every tick */
+	public int iterations = 2;
 
-		public boolean equals(Holder other) {
-			return other != null && other.circle == circle && other.body == body;
-		}
-	}
+	// the colliding entities, packed so that the broadphase can refer to them by index. Each one has a circle or a polygon.
+	protected FreeBody[] bodyList = new FreeBody[16];
+	protected Circle[] circles = new Circle[16];
+	protected Polygon[] polygons = new Polygon[16];
+	protected int count = 0;
+	// the index of each body, kept up to date as bodies are moved into the gaps left by removed ones
+	private Map<FreeBody, Integer> indices = new IdentityHashMap<>();
 
-	// private List<Holder> holders = new LinkedList<>();
-	// I implement my own LinkedList structure here for performance because java's LinkedList
-	// does not support cloning ListIterators
-	private Holder firstHolder = null;
+	// the bounding box of each entity, empty if its collision is off
+	private double[] left = new double[16], top = new double[16], right = new double[16], bottom = new double[16];
+	// the collision layers of each entity, for the broadphase
+	private int[] categories = new int[16], masks = new int[16];
+	protected PairList pairs = new PairList();
+	protected ContactBuffer contacts = new ContactBuffer();
+	protected AxisCache axisCache = new AxisCache();
+	protected ContactCache contactCache = new ContactCache();
+	// the speed apart along the normal that each contact's impulse aims for
+	private double[] targetSpeed = new double[64];
+	private double[] result = new double[3];
+	private AABB box = new AABB();
+	// where each entity was when the contacts were found
+	private double[] testX = new double[16], testY = new double[16];
+
+	// where each circle's center was at the end of the last tick
+	private double[] lastX = new double[16], lastY = new double[16];
+	// the earliest impact found for each bullet this tick, and what it hits
+	private double[] impactTime = new double[16];
+	private int[] impactWith = new int[16];
+	// where each circle's center was at the end of the tick, before any bullet was put back
+	private double[] endX = new double[16], endY = new double[16];
+
+	// told about touching bodies, so they can fall asleep together
+	protected BodyStore bodies;
+
+	// the queries search the broadphase if it is a DynamicAABBTree. Otherwise they have a tree of their own, with a proxy
+	// for each index (or -1). Either is brought up to date by the first query after anything moved.
+	private DynamicAABBTree queryTree = null;
+	private int[] queryProxy = new int[16];
+	private boolean queryStale = true;
+	private DynamicAABBTree searched = null; // the tree the last query searched
+	// what the query being run is looking for, read by the callbacks
+	private HitList queryHits;
+	private double queryX, queryY, queryMoveX, queryMoveY, queryRadius, queryLength;
+	private double[] queryResult = new double[3];
+	private DynamicAABBTree.RayCallback castCallback = (proxy, maxFraction) -> {
+		castIndex(searched.getData(proxy));
+		return maxFraction;
+	};
+	private DynamicAABBTree.QueryCallback overlapCallback = proxy -> {
+		overlapIndex(searched.getData(proxy));
+		return true;
+	};
+	private DynamicAABBTree.QueryCallback boxCallback = proxy -> {
+		boxIndex(searched.getData(proxy));
+		return true;
+	};
+
+	public Collision(BodyStore bodies) {
+		this.bodies = bodies;
+		requires = new Class<?>[] { FreeBody.class };
+		watches = new Class<?>[] { Circle.class, Polygon.class };
+	}
 
 	@Override
 	public void run() {
-		// check every entity against every other entity
-		Holder holder = firstHolder;
-		while (holder != null) {
-			if (holder.body.collisionOn) {
-				Holder holder2 = holder.next;
-				while (holder2 != null) {
-					if (holder2.body.collisionOn) {
-						handleCollisions(holder.body, holder.circle, holder2.body, holder2.circle);
+		axisCache.nextTick();
+		updateBoxes();
+
+		contacts.clear();
+		if (broadphase == null) {
+			// check every entity against every other entity
+			for (int a = 0; a < count; a++) {
+				if (bodyList[a].collisionOn) {
+					for (int b = a + 1; b < count; b++) {
+						if (bodyList[b].collisionOn && (categories[a] & masks[b]) != 0 && (categories[b] & masks[a]) != 0)
+							collide(a, b);
 					}
-					holder2 = holder2.next;
 				}
 			}
-			holder = holder.next;
-		}
-	}
-
-	public static void handleCollisions(FreeBody aBody, Circle aCircle, FreeBody bBody, Circle bCircle) {
-		// preliminary AABB check because it's cheap and will usually be sufficient
-		if (aCircle.getAABB().intersects(bCircle.getAABB())) {
-			CollisionResult collision = aCircle.getCollisionResult(bCircle);
-			// check if they are already colliding
-			if (collision.collision) {
-				// move both bodies away from each other
-				double totalMass = aBody.mass + bBody.mass;
-				double aMassFraction = aBody.mass / totalMass;
-				double bMassFraction = bBody.mass / totalMass;
-				aBody.entity.transform.position.add(new Vector(collision.correction).mul(bMassFraction));
-				collision.correction.mul(-aMassFraction); // correction now points towards the collision
-				bBody.entity.transform.position.add(collision.correction);
-
-				// apply an equal and opposite force to both bodies
-				Vector correctionUnit = collision.correction.clone(); // correction as a unit vector
-				correctionUnit.normalize();
-				// double iMag = aProjected.mag() + bProjected.mag();
-				double iMag = Math.abs(Vector.dot(aBody.getMomentum(), correctionUnit)) + Math.abs(Vector.dot(bBody.getMomentum(), correctionUnit));
-				Vector impulse = Vector.fromAngle(collision.correction.angle(), iMag);
-				// impulse.mul((aBody.mass + bBody.mass));
-				bBody.applyForce(impulse);
-				impulse.negate(); // impulse points towards a
-				aBody.applyForce(impulse);
+		} else {
+			broadphase.findPairs(count, left, top, right, bottom, categories, masks, pairs);
+			narrowphase();
+		}
+		resolve();
+
+		for (int i = 0; i < count; i++) {
+			if (circles[i] != null) {
+				endX[i] = centerX(circles[i]);
+				endY[i] = centerY(circles[i]);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			int other = impactWith[i];
+			if (other != -1 && bodyList[i].collisionOn) {
+				boolean both = impactWith[other] == i;
+				if (both)
+					impactWith[other] = -1; // two bullets hitting each other first, handle it once
+				impact(i, other, impactTime[i], both);
+			}
+		}
+
+		for (int i = 0; i < count; i++)
+			rememberPosition(i);
+		queryStale = true;
+	}
+
+	/**
+	 * Checks the pairs from the broadphase exactly, and puts the ones that overlap into the contact buffer.
+	 */
+	protected void narrowphase() {
+		for (int p = 0; p < pairs.size(); p++)
+			collide(pairs.first(p), pairs.second(p));
+	}
+
+	/**
+	 * Pushes apart the bodies of every contact, in order, then solves their impulses.
+	 */
+	protected void resolve() {
+		int n = contacts.size();
+		prepareSolver();
+		for (int k = 0; k < n; k++) {
+			if (resolveContact(k))
+				bodies.touch(bodyList[contacts.a[k]], bodyList[contacts.b[k]]);
+		}
+		for (int k = 0; k < n; k++)
+			warmStart(k);
+		for (int i = 0; i < iterations; i++) {
+			for (int k = 0; k < n; k++)
+				solveContact(k);
+		}
+		contactCache.store(contacts);
+	}
+
+	/**
+	 * Starts every contact from the impulse it had last tick, and works out the speed apart it should end up with.
+	 */
+	protected void prepareSolver() {
+		int n = contacts.size();
+		contactCache.warmStart(contacts);
+		if (targetSpeed.length < n)
+			targetSpeed = new double[contacts.a.length];
+		for (int k = 0; k < n; k++) {
+			double speed = speedApart(bodyList[contacts.a[k]], bodyList[contacts.b[k]], contacts.normalX[k], contacts.normalY[k]);
+			targetSpeed[k] = speed < -restingSpeed ? -restitution * speed : 0;
+		}
+	}
+
+	/**
+	 * Applies the impulse a contact had last tick again.
+	 */
+	protected void warmStart(int k) {
+		double impulse = contacts.impulse[k];
+		if (impulse != 0)
+			applyImpulse(bodyList[contacts.a[k]], bodyList[contacts.b[k]], contacts.normalX[k], contacts.normalY[k], impulse);
+	}
+
+	/**
+	 * Changes the impulse of a contact so that its bodies move apart at the target speed. The total impulse never pulls
+	 * them together, so a contact that gets pushed apart by other contacts lets go.
+	 */
+	protected void solveContact(int k) {
+		FreeBody aBody = bodyList[contacts.a[k]], bBody = bodyList[contacts.b[k]];
+		double inverseMass = inverseMass(aBody) + inverseMass(bBody);
+		if (inverseMass == 0)
+			return;
+		double normalX = contacts.normalX[k], normalY = contacts.normalY[k];
+		double change = (targetSpeed[k] - speedApart(aBody, bBody, normalX, normalY)) / inverseMass;
+		double impulse = Math.max(contacts.impulse[k] + change, 0);
+		change = impulse - contacts.impulse[k];
+		contacts.impulse[k] = impulse;
+		applyImpulse(aBody, bBody, normalX, normalY, change);
+	}
+
+	/**
+	 * Pushes apart the bodies of a contact, if earlier contacts haven't already.
+	 *
+	 * @return true if they were still colliding
+	 */
+	protected boolean resolveContact(int k) {
+		int a = contacts.a[k], b = contacts.b[k];
+		if (circles[a] != null && circles[b] != null)
+			return handleCollisions(bodyList[a], circles[a], bodyList[b], circles[b]);
+		// polygons aren't tested again, the depth just loses however far the bodies moved apart since the test
+		FreeBody aBody = bodyList[a], bBody = bodyList[b];
+		Vector aPos = aBody.entity.transform.position, bPos = bBody.entity.transform.position;
+		double normalX = contacts.normalX[k], normalY = contacts.normalY[k];
+		double moved = ((bPos.x - testX[b]) - (aPos.x - testX[a])) * normalX + ((bPos.y - testY[b]) - (aPos.y - testY[a])) * normalY;
+		double depth = contacts.depth[k] - moved;
+		if (depth <= 0)
+			return false;
+		push(aBody, bBody, normalX, normalY, depth);
+		return true;
+	}
+
+	/**
+	 * Finds the bounding box and collision layers of every entity, as they are now.
+	 */
+	private void updateBoxes() {
+		for (int i = 0; i < count; i++) {
+			Vector pos = bodyList[i].entity.transform.position;
+			testX[i] = pos.x;
+			testY[i] = pos.y;
+			categories[i] = bodyList[i].collisionCategory;
+			masks[i] = bodyList[i].collisionMask;
+			if (bodyList[i].collisionOn && polygons[i] != null) {
+				polygons[i].getAABB(box);
+				left[i] = box.left;
+				right[i] = box.right;
+				top[i] = box.top;
+				bottom[i] = box.bottom;
+				impactWith[i] = -1;
+			} else if (bodyList[i].collisionOn) {
+				Circle c = circles[i];
+				double x = centerX(c), y = centerY(c);
+				double r = c.getRadius();
+				left[i] = x - r;
+				right[i] = x + r;
+				top[i] = y - r;
+				bottom[i] = y + r;
+				if (bodyList[i].bullet) {
+					// cover the whole path
+					left[i] = Math.min(left[i], lastX[i] - r);
+					right[i] = Math.max(right[i], lastX[i] + r);
+					top[i] = Math.min(top[i], lastY[i] - r);
+					bottom[i] = Math.max(bottom[i], lastY[i] + r);
+				}
+				impactWith[i] = -1;
+			} else {
+				left[i] = right[i] = top[i] = bottom[i] = Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+
+	/**
+	 * Checks one pair exactly, adding a contact if it overlaps.
+	 */
+	protected void collide(int a, int b) {
+		if (sweep(a, b) || !wakeUp(a, b))
+			return;
+		boolean polygon = circles[a] == null || circles[b] == null;
+		int axis = test(a, b, polygon ? axisCache.get(a, b) : -1, result);
+		if (polygon)
+			axisCache.put(a, b, axis);
+		if (axis == -1)
+			contacts.add(a, b, result[0], result[1], result[2]);
+	}
+
+	/**
+	 * Tests a pair with the test for their shapes, as they were when their boxes were found. Doesn't change anything
+	 * but result, so it is safe to call from several threads.
+	 *
+	 * @param hint the axis that separated them last time, or -1
+	 * @param result gets the unit normal from a to b and the depth, in that order, if they overlap
+	 * @return an axis that separates them, or -1 if they overlap
+	 */
+	protected int test(int a, int b, int hint, double[] result) {
+		Circle aCircle = circles[a], bCircle = circles[b];
+		if (aCircle == null && bCircle == null)
+			return Polygon.test(polygons[a], polygons[b], hint, result);
+		if (aCircle == null)
+			return Polygon.test(polygons[a], centerX(bCircle), centerY(bCircle), bCircle.getRadius(), hint, result);
+		if (bCircle == null) {
+			int axis = Polygon.test(polygons[b], centerX(aCircle), centerY(aCircle), aCircle.getRadius(), hint, result);
+			// the normal points from the polygon to the circle, the other way around
+			result[0] = -result[0];
+			result[1] = -result[1];
+			return axis;
+		}
+		double dx = centerX(bCircle) - centerX(aCircle);
+		double dy = centerY(bCircle) - centerY(aCircle);
+		double radius = aCircle.getRadius() + bCircle.getRadius();
+		double dist2 = dx * dx + dy * dy;
+		if (dist2 >= radius * radius)
+			return 0;
+		double distance = Math.sqrt(dist2);
+		result[0] = distance == 0 ? 1 : dx / distance;
+		result[1] = distance == 0 ? 0 : dy / distance;
+		result[2] = radius - distance;
+		return -1;
+	}
+
+	/**
+	 * @return true if the pair's path has to be checked, since it has a bullet in it
+	 */
+	protected boolean isSwept(int a, int b) {
+		return (bodyList[a].bullet || bodyList[b].bullet) && circles[a] != null && circles[b] != null;
+	}
+
+	/**
+	 * Checks the path of a pair with a bullet in it.
+	 *
+	 * @return true if the pair was taken care of, false if it needs an ordinary check (which is the case for pairs
+	 * without bullets, or that overlapped from the start)
+	 */
+	protected boolean sweep(int a, int b) {
+		if (isSwept(a, b)) {
+			// where the centers are relative to each other at the start of the tick, and how that changes over the tick
+			Circle aCircle = circles[a], bCircle = circles[b];
+			double aX = centerX(aCircle), aY = centerY(aCircle), bX = centerX(bCircle), bY = centerY(bCircle);
+			double startX = lastX[b] - lastX[a], startY = lastY[b] - lastY[a];
+			double moveX = (bX - lastX[b]) - (aX - lastX[a]), moveY = (bY - lastY[b]) - (aY - lastY[a]);
+			double t = Circle.timeOfImpact(startX, startY, moveX, moveY, aCircle.getRadius() + bCircle.getRadius());
+			if (t > 0) {
+				// they met during the tick, remember it if it's the first thing the bullet hits
+				if (bodyList[a].bullet && (impactWith[a] == -1 || t < impactTime[a])) {
+					impactTime[a] = t;
+					impactWith[a] = b;
+				}
+				if (bodyList[b].bullet && (impactWith[b] == -1 || t < impactTime[b])) {
+					impactTime[b] = t;
+					impactWith[b] = a;
+				}
+				return true;
+			}
+			// if t is 0 they overlapped from the start, which is an ordinary collision
+			return t < 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Wakes up a sleeping body if an awake one came near it.
+	 *
+	 * @return false if nothing can happen between the pair, because both are asleep or a sleeper isn't near
+	 */
+	protected boolean wakeUp(int a, int b) {
+		FreeBody aBody = bodyList[a], bBody = bodyList[b];
+		boolean aAsleep = aBody.isAsleep();
+		boolean bAsleep = bBody.isAsleep();
+		if (aAsleep && bAsleep)
+			return false;
+		if (aAsleep || bAsleep) {
+			if (!(right[a] > left[b] && left[a] < right[b] && top[a] < bottom[b] && bottom[a] > top[b]))
+				return false;
+			if (aAsleep)
+				aBody.wake();
+			else
+				bBody.wake();
+		}
+		return true;
+	}
+
+	/**
+	 * @return the contacts found during the last tick. Indices are Collision's own, and change when entities are removed.
+	 */
+	public ContactBuffer getContacts() {
+		return contacts;
+	}
+
+	/**
+	 * Finds the entities hit by the line from (x1, y1) to (x2, y2), closest first. The distance of a hit is how far along
+	 * the line it is, and the normal points out of the entity. A ray starting inside something hits it at distance 0.
+	 *
+	 * The queries share buffers, so they can only be run from one thread at a time.
+	 *
+	 * @param hits cleared, then filled with the hits on entities whose collision category is in its mask
+	 */
+	public void raycast(double x1, double y1, double x2, double y2, HitList hits) {
+		circleCast(x1, y1, x2, y2, 0, hits);
+	}
+
+	/**
+	 * Finds the entities a circle would touch moving from (x1, y1) to (x2, y2), closest first. The distance of a hit is how
+	 * far the circle has moved when it first touches, the point is where they touch, and the normal points out of the
+	 * entity.
+	 *
+	 * @param hits cleared, then filled with the hits on entities whose collision category is in its mask
+	 */
+	public void circleCast(double x1, double y1, double x2, double y2, double radius, HitList hits) {
+		startQuery(x1, y1, radius, hits);
+		queryMoveX = x2 - x1;
+		queryMoveY = y2 - y1;
+		queryLength = Math.sqrt(queryMoveX * queryMoveX + queryMoveY * queryMoveY);
+		searched.raycast(x1, y1, x2, y2, radius, castCallback);
+		hits.sort();
+		queryHits = null;
+	}
+
+	/**
+	 * Finds the entities that overlap a circle, closest first. The distance of a hit is how far its surface is from the
+	 * center (0 if the center is inside it), the point is the closest point of its surface, and the normal points from
+	 * there towards the center.
+	 *
+	 * @param hits cleared, then filled with the hits on entities whose collision category is in its mask
+	 */
+	public void overlapCircle(double x, double y, double radius, HitList hits) {
+		startQuery(x, y, radius, hits);
+		searched.query(x - radius, y - radius, x + radius, y + radius, overlapCallback);
+		hits.sort();
+		queryHits = null;
+	}
+
+	/**
+	 * Finds the entities whose bounding boxes overlap a box, sorted by how far their centers are from the box's center.
+	 * The point of a hit is the entity's center, and the normal points from the box's center towards it.
+	 *
+	 * @param hits cleared, then filled with the hits on entities whose collision category is in its mask
+	 */
+	public void queryAABB(double left, double top, double right, double bottom, HitList hits) {
+		startQuery((left + right) / 2, (top + bottom) / 2, 0, hits);
+		box.left = left;
+		box.top = top;
+		box.right = right;
+		box.bottom = bottom;
+		searched.query(left, top, right, bottom, boxCallback);
+		hits.sort();
+		queryHits = null;
+	}
+
+	private void startQuery(double x, double y, double radius, HitList hits) {
+		hits.clear();
+		DynamicAABBTree tree = broadphase instanceof DynamicAABBTree ? (DynamicAABBTree) broadphase : null;
+		if (queryStale || searched != (tree != null ? tree : queryTree)) {
+			if (tree != null) {
+				// the broadphase's own proxies, as findPairs() would move them
+				updateBoxes();
+				tree.update(count, left, top, right, bottom, categories, masks);
+				searched = tree;
+			} else {
+				updateQueryTree();
+				searched = queryTree;
+			}
+			queryStale = false;
+		}
+		queryHits = hits;
+		queryX = x;
+		queryY = y;
+		queryRadius = radius;
+	}
+
+	/**
+	 * Moves every entity's proxy in the query tree to its hitbox as it is now.
+	 */
+	private void updateQueryTree() {
+		if (queryTree == null)
+			queryTree = new DynamicAABBTree();
+		for (int i = 0; i < count; i++) {
+			if (!bodyList[i].collisionOn) {
+				destroyQueryProxy(i);
+				continue;
+			}
+			shapeBox(i, box);
+			if (queryProxy[i] == -1)
+				queryProxy[i] = queryTree.createProxy(box, i);
+			else
+				queryTree.moveProxy(queryProxy[i], box);
+		}
+	}
+
+	private void destroyQueryProxy(int i) {
+		if (queryTree != null && queryProxy[i] != -1) {
+			queryTree.destroyProxy(queryProxy[i]);
+			queryProxy[i] = -1;
+		}
+	}
+
+	/**
+	 * Puts the bounding box of an entity's hitbox where it is now into result, not covering a bullet's path.
+	 */
+	private void shapeBox(int i, AABB result) {
+		if (polygons[i] != null) {
+			polygons[i].getAABB(result);
+			return;
+		}
+		Circle c = circles[i];
+		double x = centerX(c), y = centerY(c), r = c.getRadius();
+		result.left = x - r;
+		result.right = x + r;
+		result.top = y - r;
+		result.bottom = y + r;
+	}
+
+	private boolean wanted(int i) {
+		return (bodyList[i].collisionCategory & queryHits.mask) != 0;
+	}
+
+	private void castIndex(int i) {
+		if (!wanted(i))
+			return;
+		double t, nx, ny;
+		if (polygons[i] != null) {
+			t = Polygon.cast(polygons[i], queryX, queryY, queryMoveX, queryMoveY, queryRadius, queryResult);
+			if (t < 0)
+				return;
+			nx = queryResult[0];
+			ny = queryResult[1];
+		} else {
+			Circle c = circles[i];
+			double cx = centerX(c), cy = centerY(c);
+			t = Circle.timeOfImpact(queryX - cx, queryY - cy, queryMoveX, queryMoveY, c.getRadius() + queryRadius);
+			if (t < 0)
+				return;
+			nx = queryX + queryMoveX * t - cx;
+			ny = queryY + queryMoveY * t - cy;
+			double length = Math.sqrt(nx * nx + ny * ny);
+			if (length == 0) {
+				nx = 1;
+				ny = 0;
+			} else {
+				nx /= length;
+				ny /= length;
+			}
+		}
+		// where the cast's circle touches the surface
+		double x = queryX + queryMoveX * t - nx * queryRadius;
+		double y = queryY + queryMoveY * t - ny * queryRadius;
+		queryHits.add(bodyList[i].entity, t * queryLength, x, y, nx, ny);
+	}
+
+	private void overlapIndex(int i) {
+		if (!wanted(i))
+			return;
+		double distance, nx, ny;
+		if (polygons[i] != null) {
+			if (Polygon.test(polygons[i], queryX, queryY, queryRadius, -1, queryResult) != -1)
+				return;
+			nx = queryResult[0];
+			ny = queryResult[1];
+			distance = queryRadius - queryResult[2];
+		} else {
+			Circle c = circles[i];
+			nx = queryX - centerX(c);
+			ny = queryY - centerY(c);
+			double between = Math.sqrt(nx * nx + ny * ny);
+			distance = between - c.getRadius();
+			if (distance >= queryRadius)
+				return;
+			if (between == 0) {
+				nx = 1;
+				ny = 0;
+			} else {
+				nx /= between;
+				ny /= between;
 			}
 		}
+		distance = Math.max(distance, 0);
+		queryHits.add(bodyList[i].entity, distance, queryX - nx * distance, queryY - ny * distance, nx, ny);
+	}
+
+	private void boxIndex(int i) {
+		if (!wanted(i))
+			return;
+		double left = box.left, top = box.top, right = box.right, bottom = box.bottom;
+		shapeBox(i, box);
+		boolean overlaps = box.left <= right && box.right >= left && box.top <= bottom && box.bottom >= top;
+		box.left = left;
+		box.top = top;
+		box.right = right;
+		box.bottom = bottom;
+		if (!overlaps)
+			return;
+		IngameComponent hitbox = polygons[i] != null ? polygons[i] : circles[i];
+		double x = centerX(hitbox), y = centerY(hitbox);
+		double nx = x - queryX, ny = y - queryY;
+		double distance = Math.sqrt(nx * nx + ny * ny);
+		if (distance == 0) {
+			nx = 1;
+			ny = 0;
+		} else {
+			nx /= distance;
+			ny /= distance;
+		}
+		queryHits.add(bodyList[i].entity, distance, x, y, nx, ny);
+	}
+
+	/**
+	 * Puts bullet a back to where it was at the given time during the tick, touching b as it was then, and bounces them
+	 * off each other. b is only put back too if moveBoth is set.
+	 */
+	private void impact(int a, int b, double time, boolean moveBoth) {
+		FreeBody aBody = bodyList[a], bBody = bodyList[b];
+		if (aBody.isAsleep())
+			aBody.wake();
+		if (bBody.isAsleep())
+			bBody.wake();
+		Circle aCircle = circles[a], bCircle = circles[b];
+		// from where they ended up, so a body hit by several bullets isn't put back by one of them for the next
+		double aX = lastX[a] + (endX[a] - lastX[a]) * time;
+		double aY = lastY[a] + (endY[a] - lastY[a]) * time;
+		double bX = lastX[b] + (endX[b] - lastX[b]) * time;
+		double bY = lastY[b] + (endY[b] - lastY[b]) * time;
+		moveCenter(aCircle, aX, aY);
+		if (moveBoth)
+			moveCenter(bCircle, bX, bY);
+
+		double normalX = bX - aX, normalY = bY - aY;
+		double distance = Math.sqrt(normalX * normalX + normalY * normalY);
+		if (distance == 0) {
+			normalX = 1;
+			normalY = 0;
+		} else {
+			normalX /= distance;
+			normalY /= distance;
+		}
+		// bounce, since they hit too fast for the solver to see it
+		double speed = speedApart(aBody, bBody, normalX, normalY);
+		double inverseMass = inverseMass(aBody) + inverseMass(bBody);
+		if (speed < 0 && inverseMass != 0)
+			applyImpulse(aBody, bBody, normalX, normalY, -(1 + restitution) * speed / inverseMass);
+		bodies.touch(aBody, bBody);
+	}
+
+	private void rememberPosition(int i) {
+		IngameComponent hitbox = circles[i] != null ? circles[i] : polygons[i];
+		lastX[i] = centerX(hitbox);
+		lastY[i] = centerY(hitbox);
+	}
+
+	// the same as c.globalPosition(), without the clone
+	protected static double centerX(IngameComponent c) {
+		return c.entity.transform.position.x + c.transform.position.x;
+	}
+
+	protected static double centerY(IngameComponent c) {
+		return c.entity.transform.position.y + c.transform.position.y;
+	}
+
+	private static void moveCenter(Circle c, double x, double y) {
+		Vector pos = c.entity.transform.position;
+		pos.x = x - c.transform.position.x;
+		pos.y = y - c.transform.position.y;
+	}
+
+	/**
+	 * Pushes two bodies apart if they are colliding. Their velocities are left alone, those are up to the solver.
+	 * 
+	 * @return true if they were colliding
+	 */
+	public static boolean handleCollisions(FreeBody aBody, Circle aCircle, FreeBody bBody, Circle bCircle) {
+		double dx = centerX(bCircle) - centerX(aCircle);
+		double dy = centerY(bCircle) - centerY(aCircle);
+		double radius = aCircle.getRadius() + bCircle.getRadius();
+		double dist2 = dx * dx + dy * dy;
+		if (dist2 >= radius * radius)
+			return false;
+		double distance = Math.sqrt(dist2);
+		double unitX = 1, unitY = 0; // from a to b
+		if (distance != 0) {
+			unitX = dx / distance;
+			unitY = dy / distance;
+		}
+		push(aBody, bBody, unitX, unitY, radius - distance);
+		return true;
+	}
+
+	/**
+	 * Moves two bodies apart by depth along the given unit vector pointing from a to b.
+	 */
+	private static void push(FreeBody aBody, FreeBody bBody, double unitX, double unitY, double depth) {
+		// move both bodies away from each other, the lighter one further
+		double totalMass = aBody.mass + bBody.mass;
+		double aMassFraction = aBody.mass / totalMass;
+		double bMassFraction = bBody.mass / totalMass;
+		Vector aPos = aBody.entity.transform.position;
+		Vector bPos = bBody.entity.transform.position;
+		aPos.x -= unitX * depth * bMassFraction;
+		aPos.y -= unitY * depth * bMassFraction;
+		bPos.x += unitX * depth * aMassFraction;
+		bPos.y += unitY * depth * aMassFraction;
+	}
+
+	/**
+	 * Applies an equal and opposite impulse to both bodies, along the given unit vector pointing from a to b.
+	 */
+	private static void applyImpulse(FreeBody aBody, FreeBody bBody, double unitX, double unitY, double impulse) {
+		// the impulse points away from a, so it is negated for a
+		bBody.applyForce(unitX * impulse, unitY * impulse);
+		aBody.applyForce(-unitX * impulse, -unitY * impulse);
+	}
+
+	/**
+	 * @return how fast b moves away from a along the given unit vector, counting the forces applied so far this tick
+	 */
+	private static double speedApart(FreeBody aBody, FreeBody bBody, double unitX, double unitY) {
+		double x = (bBody.velocity.x + bBody.acceleration.x) - (aBody.velocity.x + aBody.acceleration.x);
+		double y = (bBody.velocity.y + bBody.acceleration.y) - (aBody.velocity.y + aBody.acceleration.y);
+		return x * unitX + y * unitY;
+	}
+
+	// forces don't do anything to bodies without mass
+	private static double inverseMass(FreeBody body) {
+		return body.mass == 0 ? 0 : 1 / body.mass;
 	}
 
 	@Override
 	public boolean compatibleWith(Entity e) {
-		return compatibleWith(e.getFreeBody(), (Circle) e.getComponent(Circle.class));
+		return e.getFreeBody() != null && hitboxOf(e) != null;
 	}
 
-	private boolean compatibleWith(FreeBody fb, Circle c) {
-		return fb != null && c != null;
+	private static IngameComponent hitboxOf(Entity e) {
+		Circle c = e.getComponent(Circle.class);
+		if (c != null)
+			return c;
+		return e.getComponent(Polygon.class);
 	}
 
 	@Override
 	public void addEntity(Entity e) {
 		FreeBody fb = e.getFreeBody();
-		Circle c = (Circle) e.getComponent(Circle.class);
-		if (compatibleWith(fb, c)) {
-			Holder holder = new Holder(fb, c, firstHolder);
-			// prevent duplicates
-			if (!contains(holder)) {
-				holder.next = firstHolder;
-				firstHolder = holder;
+		IngameComponent hitbox = hitboxOf(e);
+		if (fb != null && hitbox != null && indexOf(fb, hitbox) == -1) {
+			if (count == bodyList.length) {
+				int size = count * 2;
+				bodyList = Arrays.copyOf(bodyList, size);
+				circles = Arrays.copyOf(circles, size);
+				polygons = Arrays.copyOf(polygons, size);
+				testX = new double[size];
+				testY = new double[size];
+				left = new double[size];
+				top = new double[size];
+				right = new double[size];
+				bottom = new double[size];
+				categories = new int[size];
+				masks = new int[size];
+				lastX = Arrays.copyOf(lastX, size);
+				lastY = Arrays.copyOf(lastY, size);
+				queryProxy = Arrays.copyOf(queryProxy, size);
+				impactTime = new double[size];
+				impactWith = new int[size];
+				endX = new double[size];
+				endY = new double[size];
 			}
+			bodyList[count] = fb;
+			circles[count] = hitbox instanceof Circle ? (Circle) hitbox : null;
+			polygons[count] = hitbox instanceof Polygon ? (Polygon) hitbox : null;
+			rememberPosition(count);
+			queryProxy[count] = -1;
+			indices.put(fb, count);
+			count++;
+			queryStale = true;
 		}
 	}
 
 	@Override
 	public void removeEntity(Entity e) {
-		// generate a holder to represent this entity
-		Holder testHolder = new Holder(e.getFreeBody(), e.getComponent(Circle.class), null);
-
-		// eliminate any bodies at the beginning that match
-		while (firstHolder.equals(testHolder)) {
-			firstHolder = firstHolder.next;
-		}
-		if (firstHolder != null) {
-			// search the rest of the nodes
-			Holder holder = firstHolder.next;
-			Holder previous = firstHolder;
-			while (holder != null) {
-				if (testHolder.equals(holder)) {
-					previous.next = holder.next;
-				} else {
-					previous = holder;
-				}
-				holder = holder.next;
-			}
+		int i = indexOf(e.getFreeBody(), hitboxOf(e));
+		if (i != -1) {
+			// the query tree knows them by index, they get new proxies on the next query
+			destroyQueryProxy(i);
+			destroyQueryProxy(count - 1);
+			queryStale = true;
+			// move the last one into the gap, so only one entity changes its index for the broadphase
+			count--;
+			bodyList[i] = bodyList[count];
+			circles[i] = circles[count];
+			polygons[i] = polygons[count];
+			lastX[i] = lastX[count];
+			lastY[i] = lastY[count];
+			bodyList[count] = null;
+			circles[count] = null;
+			polygons[count] = null;
+			indices.remove(e.getFreeBody());
+			if (i < count)
+				indices.put(bodyList[i], i);
+			// the impulses and separating axes are remembered by index
+			contactCache.moved(count, i);
+			axisCache.moved(count, i);
 		}
 	}
 
 	@Override
 	public boolean contains(Entity e) {
-		return contains(new Holder(e.getFreeBody(), (Circle) e.getComponent(Circle.class), null));
+		return indexOf(e.getFreeBody(), hitboxOf(e)) != -1;
 	}
 
-	private boolean contains(Holder holder) {
-		Holder iterator = firstHolder;
-		while (iterator != null) {
-			if (iterator.equals(holder))
-				return true;
-			iterator = iterator.next;
-		}
-		return false;
+	private int indexOf(FreeBody body, IngameComponent hitbox) {
+		Integer i = indices.get(body);
+		if (i == null || (circles[i] != hitbox && polygons[i] != hitbox))
+			return -1;
+		return i;
 	}
 }
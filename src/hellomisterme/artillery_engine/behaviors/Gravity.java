@@ -1,38 +1,246 @@
 package hellomisterme.artillery_engine.behaviors;
 
 import hellomisterme.artillery_engine.Entity;
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+import hellomisterme.artillery_engine.components.physics.ForceField;
 import hellomisterme.artillery_engine.components.physics.FreeBody;
-import hellomisterme.artillery_engine.util.Vector;
 
-import java.util.HashSet;
-import java.util.Set;
+/**
+ * Gravity makes every pulling FreeBody attract every pulled FreeBody. This is the exact brute force solver, which checks
+ * every pullee against every puller. It is O(n^2), so large worlds should use BarnesHutGravity instead, but it is kept
+ * as the reference that the approximations are measured against.
+ *
+ * Gravity works directly on the packed arrays of a BodyStore. Pullers and pullees are marked with the PULLS and PULLED
+ * flags, and the resulting accelerations are written to the store, which applies them when it next integrates.
+ *
+ * Gravity is also a ForceField, so it can be added to its BodyStore and evaluated by the Integrator as often as it needs.
+ *
+ * In symmetric mode, bodies that both pull and are pulled are visited once per pair and get equal and opposite forces,
+ * which is about twice as fast when most bodies have mass. The answer is the same, apart from floating point rounding.
+ */
+public class Gravity extends Behavior implements ForceField {
 
-public class Gravity extends Behavior {
+	protected BodyStore bodies;
 
-	private Set<FreeBody> pullers = new HashSet<>();
-	private Set<FreeBody> pullees = new HashSet<>();
+	/** If true, each pair of mutually attracting bodies is only calculated once */
+	public boolean symmetric;
+
+	/** The number of pullers pullFromAll() works on at once */
+	protected static final int LANES = 4;
+
+	// the pullers packed together for pullFromAll(), padded to a multiple of LANES
+	private double[] pullerX = new double[0], pullerY = new double[0], pullerMass = new double[0];
+	private int pullerCount = 0;
+
+	// slots sorted by how they take part in gravity, reused every tick by the symmetric mode
+	protected int[] mutual = new int[16], pullOnly = new int[16], pulledOnly = new int[16];
+	protected int mutualCount, pullOnlyCount, pulledOnlyCount;
+
+	public Gravity(BodyStore bodies) {
+		this(bodies, false);
+	}
+
+	public Gravity(BodyStore bodies, boolean symmetric) {
+		this.bodies = bodies;
+		this.symmetric = symmetric;
+		requires = new Class<?>[] { FreeBody.class };
+	}
 
 	@Override
 	public void run() {
-		for (FreeBody pulled : pullees) {
-			for (FreeBody pulling : pullers) {
-				if (pulling != pulled) {
-					if (pulling.mass != 0 && pulled.mass != 0) {
-						Vector gravity = new Vector(0, 0);
-						Vector pulledPos = pulled.entity.globalPosition();
-						Vector pullingPos = pulling.entity.globalPosition();
-						double xDist = pullingPos.x - pulledPos.x;
-						double yDist = pullingPos.y - pulledPos.y;
-						gravity.x = xDist;
-						gravity.y = yDist;
-						// law of gravitation: F = (m1 * m2) / (distance * distance) normally you would also use the
-						// Gravitational constant but that doesn't matter here because units are arbitrary
-						gravity.setMagnitude(pulled.mass * pulling.mass / (xDist * xDist + yDist * yDist));
-						pulled.applyForce(gravity);
-					}
+		if (symmetric)
+			runSymmetric();
+		else
+			runOneWay();
+	}
+
+	@Override
+	public void accumulate() {
+		run();
+	}
+
+	/**
+	 * Checks every pullee against every puller.
+	 */
+	private void runOneWay() {
+		packPullers();
+		int count = bodies.size();
+		for (int pulled = 0; pulled < count; pulled++)
+			pullFromAll(pulled, bodies.ax, bodies.ay);
+	}
+
+	/**
+	 * Copies the position and mass of every puller into the packed puller arrays, which pullFromAll() reads. Must be
+	 * called before pullFromAll() whenever the BodyStore has changed.
+	 */
+	protected void packPullers() {
+		int count = bodies.size();
+		if (pullerX.length < count + LANES) {
+			int size = count + LANES;
+			pullerX = new double[size];
+			pullerY = new double[size];
+			pullerMass = new double[size];
+		}
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		int[] flags = bodies.flags;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if ((flags[i] & BodyStore.PULLS) != 0 && mass[i] != 0) {
+				pullerX[n] = x[i];
+				pullerY[n] = y[i];
+				pullerMass[n] = mass[i];
+				n++;
+			}
+		}
+		pullerCount = n;
+		// pad up to a whole number of lanes with massless pullers, so the kernel never needs a tail loop
+		while (n % LANES != 0) {
+			pullerX[n] = 0;
+			pullerY[n] = 0;
+			pullerMass[n] = 0;
+			n++;
+		}
+	}
+
+	/**
+	 * Adds the acceleration of one pullee towards every puller to accX[pulled] and accY[pulled]. Does nothing if the body
+	 * isn't a pullee. Only reads from the BodyStore and the packed pullers, so it is safe to call for different pullees at
+	 * the same time.
+	 *
+	 * The pullers are processed LANES at a time with separate sums and no branches besides the loop, so the JIT can keep
+	 * several of the divisions and square roots in flight at once. A body's own entry is skipped automatically because
+	 * its distance to itself is zero.
+	 */
+	protected void pullFromAll(int pulled, double[] accX, double[] accY) {
+		if ((bodies.flags[pulled] & BodyStore.PULLED) == 0 || bodies.mass[pulled] == 0)
+			return;
+		double[] x = pullerX, y = pullerY, mass = pullerMass;
+		double px = bodies.x[pulled], py = bodies.y[pulled];
+		double sumX0 = 0, sumX1 = 0, sumX2 = 0, sumX3 = 0;
+		double sumY0 = 0, sumY1 = 0, sumY2 = 0, sumY3 = 0;
+		for (int i = 0; i < pullerCount; i += LANES) {
+			double xDist0 = x[i] - px, yDist0 = y[i] - py;
+			double xDist1 = x[i + 1] - px, yDist1 = y[i + 1] - py;
+			double xDist2 = x[i + 2] - px, yDist2 = y[i + 2] - py;
+			double xDist3 = x[i + 3] - px, yDist3 = y[i + 3] - py;
+			double dist0 = xDist0 * xDist0 + yDist0 * yDist0;
+			double dist1 = xDist1 * xDist1 + yDist1 * yDist1;
+			double dist2 = xDist2 * xDist2 + yDist2 * yDist2;
+			double dist3 = xDist3 * xDist3 + yDist3 * yDist3;
+			// law of gravitation: F = (m1 * m2) / (distance * distance) normally you would also use the
+			// Gravitational constant but that doesn't matter here because units are arbitrary.
+			// The pulled mass cancels out because we want the acceleration, F / m1
+			double a0 = dist0 == 0 ? 0 : mass[i] / (dist0 * Math.sqrt(dist0));
+			double a1 = dist1 == 0 ? 0 : mass[i + 1] / (dist1 * Math.sqrt(dist1));
+			double a2 = dist2 == 0 ? 0 : mass[i + 2] / (dist2 * Math.sqrt(dist2));
+			double a3 = dist3 == 0 ? 0 : mass[i + 3] / (dist3 * Math.sqrt(dist3));
+			sumX0 += xDist0 * a0;
+			sumY0 += yDist0 * a0;
+			sumX1 += xDist1 * a1;
+			sumY1 += yDist1 * a1;
+			sumX2 += xDist2 * a2;
+			sumY2 += yDist2 * a2;
+			sumX3 += xDist3 * a3;
+			sumY3 += yDist3 * a3;
+		}
+		accX[pulled] += (sumX0 + sumX1) + (sumX2 + sumX3);
+		accY[pulled] += (sumY0 + sumY1) + (sumY2 + sumY3);
+	}
+
+	/**
+	 * Visits each unordered pair of mutually attracting bodies once, and handles the bodies that only pull or are only
+	 * pulled separately.
+	 */
+	private void runSymmetric() {
+		sortBodies();
+		pullPairs(0, mutualCount, 0, mutualCount);
+		for (int i = 0; i < mutualCount; i++)
+			pull(mutual[i], pullOnly, pullOnlyCount);
+		for (int i = 0; i < pulledOnlyCount; i++) {
+			pull(pulledOnly[i], mutual, mutualCount);
+			pull(pulledOnly[i], pullOnly, pullOnlyCount);
+		}
+	}
+
+	/**
+	 * Fills mutual, pullOnly and pulledOnly with the slots of the bodies that both pull and are pulled, only pull, and
+	 * are only pulled. Massless bodies are left out.
+	 */
+	protected void sortBodies() {
+		int count = bodies.size();
+		if (mutual.length < count) {
+			mutual = new int[count];
+			pullOnly = new int[count];
+			pulledOnly = new int[count];
+		}
+		double[] mass = bodies.mass;
+		int[] flags = bodies.flags;
+		mutualCount = 0;
+		pullOnlyCount = 0;
+		pulledOnlyCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (mass[i] != 0) {
+				int flag = flags[i] & (BodyStore.PULLS | BodyStore.PULLED);
+				if (flag == (BodyStore.PULLS | BodyStore.PULLED))
+					mutual[mutualCount++] = i;
+				else if (flag == BodyStore.PULLS)
+					pullOnly[pullOnlyCount++] = i;
+				else if (flag == BodyStore.PULLED)
+					pulledOnly[pulledOnlyCount++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Makes each body in mutual[from, to) and each later one in mutual[otherFrom, otherTo) pull on each other, visiting
+	 * each pair once. The ranges are either the same or don't overlap, with the second after the first.
+	 */
+	protected void pullPairs(int from, int to, int otherFrom, int otherTo) {
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass, ax = bodies.ax, ay = bodies.ay;
+		for (int i = from; i < to; i++) {
+			int a = mutual[i];
+			double aX = x[a], aY = y[a], aMass = mass[a];
+			double accX = 0, accY = 0;
+			for (int j = Math.max(i + 1, otherFrom); j < otherTo; j++) {
+				int b = mutual[j];
+				double xDist = x[b] - aX;
+				double yDist = y[b] - aY;
+				double dist2 = xDist * xDist + yDist * yDist;
+				if (dist2 != 0) {
+					double inv = 1 / (dist2 * Math.sqrt(dist2));
+					double aAcc = mass[b] * inv;
+					double bAcc = aMass * inv;
+					accX += xDist * aAcc;
+					accY += yDist * aAcc;
+					ax[b] -= xDist * bAcc;
+					ay[b] -= yDist * bAcc;
 				}
 			}
+			ax[a] += accX;
+			ay[a] += accY;
+		}
+	}
+
+	/**
+	 * Applies the gravity of the given pullers to one pullee, which must not be one of them
+	 */
+	protected void pull(int pulled, int[] pullers, int count) {
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double px = x[pulled], py = y[pulled];
+		double accX = 0, accY = 0;
+		for (int i = 0; i < count; i++) {
+			int pulling = pullers[i];
+			double xDist = x[pulling] - px;
+			double yDist = y[pulling] - py;
+			double dist2 = xDist * xDist + yDist * yDist;
+			if (dist2 != 0) {
+				double a = mass[pulling] / (dist2 * Math.sqrt(dist2));
+				accX += xDist * a;
+				accY += yDist * a;
+			}
 		}
+		bodies.ax[pulled] += accX;
+		bodies.ay[pulled] += accY;
 	}
 
 	@Override
@@ -45,29 +253,27 @@ public class Gravity extends Behavior {
 	public void addEntity(Entity e) {
 		FreeBody fb = e.getFreeBody();
 		if (fb != null) {
-			if (fb.pullsWithGravity) {
-				pullers.add(fb);
-			}
-			if (fb.pulledByGravity) {
-				pullees.add(fb);
-			}
+			int slot = bodies.add(fb);
+			if (fb.pullsWithGravity)
+				bodies.flags[slot] |= BodyStore.PULLS;
+			if (fb.pulledByGravity)
+				bodies.flags[slot] |= BodyStore.PULLED;
+			bodies.markDirty();
 		}
 	}
 
 	@Override
 	public void removeEntity(Entity e) {
-		FreeBody fb = e.getFreeBody();
-		if (fb != null) {
-			if (fb.pullsWithGravity)
-				pullers.remove(fb);
-			if (fb.pulledByGravity)
-				pullees.remove(fb);
+		int slot = bodies.slotOf(e.getFreeBody());
+		if (slot != -1) {
+			bodies.flags[slot] &= ~(BodyStore.PULLS | BodyStore.PULLED | BodyStore.RAILS);
+			bodies.markDirty();
 		}
 	}
 
 	@Override
 	public boolean contains(Entity e) {
-		FreeBody fb = e.getFreeBody();
-		return pullers.contains(fb) || pullees.contains(fb);
+		int slot = bodies.slotOf(e.getFreeBody());
+		return slot != -1 && (bodies.flags[slot] & (BodyStore.PULLS | BodyStore.PULLED | BodyStore.RAILS)) != 0;
 	}
 }
@@ -0,0 +1,215 @@
+package hellomisterme.artillery_engine.behaviors;
+
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParallelCollision is Collision spread over several threads with a ForkJoinPool.
+ *
+ * The narrowphase tests the pairs from the broadphase in chunks of a fixed size, each writing its results into its own
+ * part of a buffer. The contacts are then added on the game thread in pair order, along with everything that touches
+ * other bodies: bullets, and waking up sleepers.
+ *
+ * Resolving a contact moves both of its bodies, so two contacts sharing a body can't be resolved at the same time. The
+ * contacts are colored so that no two contacts of the same color share a body, and each color is resolved in parallel,
+ * one color after the other. The impulses are solved the same way, one round after the other. The coloring only
+ * depends on the order of the contacts, so the result is exactly the same no matter how many threads are used. It isn't
+ * the same as Collision though, which resolves the contacts in the order they were found instead of color by color.
+ *
+ * A tick with fewer than sequentialThreshold pairs is tested on the game thread, and one with fewer contacts than that
+ * is resolved there in Collision's order, so a quiet scene behaves exactly like Collision.
+ */
+public class ParallelCollision extends Collision {
+
+	/** The number of pairs tested, or contacts of one color handled, by each task */
+	public static final int CHUNK_SIZE = 256;
+
+	/** With fewer pairs (or contacts) than this, they are tested (or resolved) on the game thread */
+	public int sequentialThreshold = 1024;
+
+	// contacts that can't get one of the 64 colors of a mask end up in this last color, which is resolved on one thread
+	private static final int OVERFLOW = 64;
+
+	// what the colored batches do with each contact
+	private static final int RESOLVE = 0, WARM_START = 1, SOLVE = 2;
+
+	private ForkJoinPool pool;
+
+	// the results of the narrowphase for each pair, with a negative depth if they don't overlap
+	private double[] pairDepth = new double[0], pairNormalX = new double[0], pairNormalY = new double[0];
+	// the axis that separated each pair with a polygon, or -1, for the axis cache
+	private int[] pairAxis = new int[0];
+
+	// the colors already used by the contacts of each body
+	private long[] colorsOf = new long[16];
+	// the contacts sorted by color, and where each color starts
+	private int[] color = new int[0], byColor = new int[0];
+	private int[] colorStart = new int[OVERFLOW + 2];
+	private boolean[] resolved = new boolean[0];
+
+	// tests a chunk of pairs, each with a result buffer of its own
+	private Chunks.Work testPairs = (from, to) -> {
+		double[] result = new double[3];
+		for (int p = from; p < to; p++)
+			test(p, result);
+	};
+
+	public ParallelCollision(BodyStore bodies) {
+		this(bodies, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelCollision(BodyStore bodies, int threads) {
+		super(bodies);
+		setThreads(threads);
+	}
+
+	/**
+	 * Sets the number of threads used to find and resolve collisions.
+	 */
+	public void setThreads(int threads) {
+		if (pool != null)
+			pool.shutdown();
+		pool = new ForkJoinPool(Math.max(threads, 1));
+	}
+
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	@Override
+	protected void narrowphase() {
+		int n = pairs.size();
+		if (n < sequentialThreshold || pool.getParallelism() == 1) {
+			super.narrowphase();
+			return;
+		}
+		if (pairDepth.length < n) {
+			pairDepth = new double[n];
+			pairNormalX = new double[n];
+			pairNormalY = new double[n];
+			pairAxis = new int[n];
+		}
+		Chunks.invoke(pool, 0, n, CHUNK_SIZE, testPairs);
+
+		// in pair order, so the contacts are the same as Collision's
+		for (int p = 0; p < n; p++) {
+			int a = pairs.first(p), b = pairs.second(p);
+			if (isSwept(a, b)) {
+				collide(a, b); // not tested by the chunks
+				continue;
+			}
+			if (!wakeUp(a, b))
+				continue;
+			if (circles[a] == null || circles[b] == null)
+				axisCache.put(a, b, pairAxis[p]);
+			if (pairDepth[p] >= 0)
+				contacts.add(a, b, pairNormalX[p], pairNormalY[p], pairDepth[p]);
+		}
+	}
+
+	/**
+	 * Tests a pair the same way Collision does, and puts the result into the pair buffer.
+	 */
+	private void test(int p, double[] result) {
+		int a = pairs.first(p), b = pairs.second(p);
+		if (isSwept(a, b))
+			return;
+		// the cache is only read here, it is updated on the game thread afterwards
+		int hint = circles[a] == null || circles[b] == null ? axisCache.get(a, b) : -1;
+		int axis = test(a, b, hint, result);
+		pairAxis[p] = axis;
+		pairNormalX[p] = result[0];
+		pairNormalY[p] = result[1];
+		pairDepth[p] = axis == -1 ? result[2] : -1;
+	}
+
+	@Override
+	protected void resolve() {
+		int n = contacts.size();
+		if (n < sequentialThreshold) {
+			super.resolve();
+			return;
+		}
+		prepareSolver();
+		colorContacts(n);
+
+		byColors(RESOLVE);
+		// SleepIslands isn't thread safe, so it hears about the contacts afterwards, in their original order
+		for (int k = 0; k < n; k++) {
+			if (resolved[k])
+				bodies.touch(bodyList[contacts.a[k]], bodyList[contacts.b[k]]);
+		}
+		byColors(WARM_START);
+		for (int i = 0; i < iterations; i++)
+			byColors(SOLVE);
+		contactCache.store(contacts);
+	}
+
+	/**
+	 * Does something to every contact, one color after the other.
+	 */
+	private void byColors(int stage) {
+		for (int c = 0; c <= OVERFLOW; c++) {
+			int from = colorStart[c], to = colorStart[c + 1];
+			if (c == OVERFLOW || pool.getParallelism() == 1 || to - from <= CHUNK_SIZE) {
+				for (int k = from; k < to; k++)
+					handle(stage, byColor[k]);
+			} else {
+				Chunks.invoke(pool, from, to, CHUNK_SIZE, (first, last) -> {
+					for (int k = first; k < last; k++)
+						handle(stage, byColor[k]);
+				});
+			}
+		}
+	}
+
+	private void handle(int stage, int k) {
+		if (stage == RESOLVE)
+			resolved[k] = resolveContact(k);
+		else if (stage == WARM_START)
+			warmStart(k);
+		else
+			solveContact(k);
+	}
+
+	/**
+	 * Greedily gives every contact the lowest color that none of the earlier contacts of its bodies have, then sorts
+	 * them by color.
+	 */
+	private void colorContacts(int n) {
+		if (colorsOf.length < count)
+			colorsOf = new long[bodyList.length];
+		else
+			Arrays.fill(colorsOf, 0, count, 0);
+		if (color.length < n) {
+			color = new int[contacts.a.length];
+			byColor = new int[contacts.a.length];
+			resolved = new boolean[contacts.a.length];
+		}
+		Arrays.fill(colorStart, 0);
+
+		for (int k = 0; k < n; k++) {
+			int a = contacts.a[k], b = contacts.b[k];
+			long used = colorsOf[a] | colorsOf[b];
+			int c = Long.numberOfTrailingZeros(~used); // 64 if every color is used
+			if (c != OVERFLOW) {
+				colorsOf[a] |= 1L << c;
+				colorsOf[b] |= 1L << c;
+			}
+			color[k] = c;
+			colorStart[c + 1]++;
+		}
+
+		// counting sort, which keeps the contacts of each color in order
+		for (int c = 0; c <= OVERFLOW; c++)
+			colorStart[c + 1] += colorStart[c];
+		for (int k = 0; k < n; k++)
+			byColor[colorStart[color[k]]++] = k;
+		// the starts were moved along by the sort, shift them back
+		for (int c = OVERFLOW + 1; c > 0; c--)
+			colorStart[c] = colorStart[c - 1];
+		colorStart[0] = 0;
+	}
+}
@@ -0,0 +1,150 @@
+package hellomisterme.artillery_engine.behaviors;
+
+import hellomisterme.artillery_engine.components.physics.BodyStore;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParallelGravity is the exact Gravity solver spread over several threads with a ForkJoinPool.
+ *
+ * The pullees are cut into chunks of a fixed size. Each chunk writes the accelerations of its own pullees into a buffer,
+ * and the buffer is added to the BodyStore on the game thread once every chunk is done. Every pullee is always summed by
+ * one thread in the same order, so the result is exactly the same no matter how many threads are used, and exactly the
+ * same as Gravity.
+ *
+ * In symmetric mode the mutually attracting bodies are cut into blocks of CHUNK_SIZE, and each pair of blocks is a
+ * task that writes straight into the BodyStore for the bodies of both. The tasks are run in rounds in which no two of
+ * them share a block, the way a round robin tournament is played, one round after the other. The blocks and rounds only
+ * depend on the number of bodies, so the result is still the same for any number of threads, but it can differ from
+ * Gravity's symmetric mode by rounding, since the pairs are added up in another order.
+ *
+ * With fewer than sequentialThreshold bodies, a tick is quicker on the game thread than split into tasks, so Gravity runs
+ * there as usual.
+ */
+public class ParallelGravity extends Gravity {
+
+	/** The number of pullees summed by each task, or the size of the blocks in symmetric mode */
+	public static final int CHUNK_SIZE = 64;
+
+	/** With fewer bodies than this, gravity is calculated on the game thread */
+	public int sequentialThreshold = 512;
+
+	private ForkJoinPool pool;
+	private double[] bufferX = new double[0], bufferY = new double[0];
+
+	private Chunks.Work pullChunk = (from, to) -> {
+		for (int pulled = from; pulled < to; pulled++)
+			pullFromAll(pulled, bufferX, bufferY);
+	};
+
+	// the symmetric mode's blocks, rounded up to an even number, and the round being run, or -1 for the blocks with
+	// themselves
+	private int blocks, evenBlocks, round;
+	private Chunks.Work pullTiles = (from, to) -> {
+		for (int t = from; t < to; t++)
+			pullTile(t);
+	};
+	// the pulls that aren't between two mutual bodies, split by pullee: the mutual ones, then the pulled only ones
+	private Chunks.Work pullRest = (from, to) -> {
+		for (int i = from; i < to; i++) {
+			if (i < mutualCount) {
+				pull(mutual[i], pullOnly, pullOnlyCount);
+			} else {
+				int pulled = pulledOnly[i - mutualCount];
+				pull(pulled, mutual, mutualCount);
+				pull(pulled, pullOnly, pullOnlyCount);
+			}
+		}
+	};
+
+	public ParallelGravity(BodyStore bodies) {
+		this(bodies, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelGravity(BodyStore bodies, int threads) {
+		super(bodies);
+		setThreads(threads);
+	}
+
+	/**
+	 * Sets the number of threads used to calculate gravity.
+	 */
+	public void setThreads(int threads) {
+		if (pool != null)
+			pool.shutdown();
+		pool = new ForkJoinPool(Math.max(threads, 1));
+	}
+
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	@Override
+	public void run() {
+		int count = bodies.size();
+		if (count < sequentialThreshold || pool.getParallelism() == 1) {
+			super.run();
+			return;
+		}
+		if (symmetric) {
+			runSymmetric();
+			return;
+		}
+		if (bufferX.length < count) {
+			bufferX = new double[bodies.x.length];
+			bufferY = new double[bodies.x.length];
+		} else {
+			Arrays.fill(bufferX, 0, count, 0);
+			Arrays.fill(bufferY, 0, count, 0);
+		}
+
+		packPullers();
+		Chunks.invoke(pool, 0, count, CHUNK_SIZE, pullChunk);
+
+		double[] ax = bodies.ax, ay = bodies.ay;
+		for (int i = 0; i < count; i++) {
+			ax[i] += bufferX[i];
+			ay[i] += bufferY[i];
+		}
+	}
+
+	private void runSymmetric() {
+		sortBodies();
+		blocks = (mutualCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		evenBlocks = blocks + (blocks & 1);
+		round = -1;
+		Chunks.invoke(pool, 0, blocks, 1, pullTiles);
+		for (round = 0; round < evenBlocks - 1; round++)
+			Chunks.invoke(pool, 0, evenBlocks / 2, 1, pullTiles);
+		Chunks.invoke(pool, 0, mutualCount + pulledOnlyCount, CHUNK_SIZE, pullRest);
+	}
+
+	/**
+	 * Makes the bodies of the two blocks of tile t of the current round pull on each other. In round r of the round robin,
+	 * the last block meets block r, and the others meet in pairs the same distance before and after r.
+	 */
+	private void pullTile(int t) {
+		int a, b;
+		if (round == -1) {
+			a = t;
+			b = t;
+		} else if (t == 0) {
+			a = round;
+			b = evenBlocks - 1;
+		} else {
+			int n = evenBlocks - 1;
+			a = (round + t) % n;
+			b = (round - t + n) % n;
+		}
+		if (a >= blocks || b >= blocks)
+			return; // the made up block that evens out an odd number of them
+		if (a > b) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		pullPairs(a * CHUNK_SIZE, Math.min((a + 1) * CHUNK_SIZE, mutualCount), b * CHUNK_SIZE,
+				Math.min((b + 1) * CHUNK_SIZE, mutualCount));
+	}
+}
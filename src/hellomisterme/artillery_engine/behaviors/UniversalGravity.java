@@ -13,11 +13,12 @@ public class UniversalGravity extends Behavior {
 	private Vector gravity;
 
 	public UniversalGravity() {
-		gravity = new Vector(0, 1);
+		this(new Vector(0, 1));
 	}
 
 	public UniversalGravity(Vector gravity) {
 		this.gravity = gravity;
+		requires = new Class<?>[] { FreeBody.class };
 	}
 
 	@Override
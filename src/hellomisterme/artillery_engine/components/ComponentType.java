@@ -0,0 +1,59 @@
+package hellomisterme.artillery_engine.components;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every class that is looked up on an Entity gets a ComponentType, with a small index of its own. Entities keep their
+ * components in arrays by these indices, so finding one doesn't mean going through all of them.
+ *
+ * Indices are given out in the order the classes are first seen, and are only good for this run of the game.
+ */
+public final class ComponentType {
+
+	private static int total = 0;
+	private static final ClassValue<ComponentType> types = new ClassValue<ComponentType>() {
+		@Override
+		protected ComponentType computeValue(Class<?> cls) {
+			return new ComponentType(cls);
+		}
+	};
+
+	public final Class<?> cls;
+	public final int index;
+	/** The indices of this class and every class and interface it extends or implements, this one first */
+	public final int[] supertypes;
+
+	private ComponentType(Class<?> cls) {
+		this.cls = cls;
+		index = nextIndex();
+		List<Class<?>> all = new ArrayList<>();
+		collect(cls, all);
+		supertypes = new int[all.size()];
+		supertypes[0] = index;
+		for (int i = 1; i < supertypes.length; i++)
+			supertypes[i] = of(all.get(i)).index;
+	}
+
+	private static synchronized int nextIndex() {
+		return total++;
+	}
+
+	private static void collect(Class<?> cls, List<Class<?>> all) {
+		if (cls == null || cls == Object.class || all.contains(cls))
+			return;
+		all.add(cls);
+		collect(cls.getSuperclass(), all);
+		for (Class<?> i : cls.getInterfaces())
+			collect(i, all);
+	}
+
+	public static ComponentType of(Class<?> cls) {
+		return types.get(cls);
+	}
+
+	/** @return how many indices have been given out so far */
+	public static synchronized int count() {
+		return total;
+	}
+}
@@ -0,0 +1,145 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * BlockTimestep is a leapfrog integrator where every body gets its own step size. A close binary can take tiny steps
+ * while distant debris takes one step per tick, and only the bodies whose step ends get their forces evaluated.
+ *
+ * Step sizes are powers of two: a body on level k takes steps of 2^-k of the step given to step(), down to maxLevel.
+ * The step is split into 2^maxLevel substeps. Every substep all bodies drift, which is cheap, and the bodies whose step
+ * begins or ends get kicked. Forces are only evaluated for bodies at the end of their step, by hiding the other pullees
+ * from the ForceFields (so they still pull, but aren't pulled). At the end of step() every body's step has ended, so
+ * the accelerations are all up to date, like any other Integrator.
+ *
+ * A body's level is chosen from its acceleration a and jerk j (how fast the acceleration changed during its last step)
+ * as the biggest step below eta * |a| / |j|. A body may only move to a bigger step at a time where the bigger step fits
+ * the block. The levels are kept in BodyStore.stepLevel, new bodies start on the smallest step.
+ *
+ * The saving is in the number of pullees evaluated. Gravity and ParallelGravity get cheaper with fewer pullees, but
+ * BarnesHutGravity rebuilds its tree at every evaluation, so it gains less.
+ */
+public class BlockTimestep extends Integrator {
+
+	/** The smallest step is 2^-maxLevel of a full step */
+	public int maxLevel = 6;
+	/** Accuracy parameter for choosing step sizes, smaller is more accurate */
+	public double eta = 0.05;
+
+	/** The number of pullee force evaluations during the last step, to compare with count * 2^maxLevel */
+	public int evaluations = 0;
+
+	// scratch arrays, indexed by slot
+	private int[] savedFlags = new int[0];
+	private double[] startAx = new double[0], startAy = new double[0];
+	private boolean[] active = new boolean[0];
+
+	@Override
+	public void step(BodyStore bodies, double dt) {
+		int count = bodies.size();
+		ensureCapacity(count);
+		int[] level = bodies.stepLevel;
+		for (int i = 0; i < count; i++) {
+			if (level[i] < 0 || level[i] > maxLevel)
+				level[i] = maxLevel;
+		}
+		evaluations = 0;
+
+		int substeps = 1 << maxLevel;
+		double h = dt / substeps;
+		double[] vx = bodies.vx, vy = bodies.vy, ax = bodies.ax, ay = bodies.ay, ex = bodies.ex, ey = bodies.ey;
+		for (int s = 0; s < substeps; s++) {
+			// opening half kick for the bodies starting a step now
+			for (int i = 0; i < count; i++) {
+				int stride = 1 << (maxLevel - level[i]);
+				if (s % stride == 0) {
+					double half = h * stride * 0.5;
+					vx[i] += (ax[i] + ex[i]) * half;
+					vy[i] += (ay[i] + ey[i]) * half;
+				}
+			}
+
+			drift(bodies, h);
+
+			// closing half kick for the bodies ending a step now, with fresh accelerations
+			int end = s + 1;
+			boolean any = false;
+			for (int i = 0; i < count; i++) {
+				active[i] = end % (1 << (maxLevel - level[i])) == 0;
+				any |= active[i];
+			}
+			if (!any)
+				continue;
+			evaluateActive(bodies, count);
+			for (int i = 0; i < count; i++) {
+				if (active[i]) {
+					int stride = 1 << (maxLevel - level[i]);
+					double half = h * stride * 0.5;
+					vx[i] += (ax[i] + ex[i]) * half;
+					vy[i] += (ay[i] + ey[i]) * half;
+					level[i] = chooseLevel(bodies, i, h * stride, dt, end);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the ForceFields for the active bodies only. The others keep their old accelerations, and startAx/startAy
+	 * are left holding the accelerations from before, which for the active bodies is the start of the step that ended.
+	 */
+	private void evaluateActive(BodyStore bodies, int count) {
+		int[] flags = bodies.flags;
+		double[] ax = bodies.ax, ay = bodies.ay;
+		System.arraycopy(flags, 0, savedFlags, 0, count);
+		System.arraycopy(ax, 0, startAx, 0, count);
+		System.arraycopy(ay, 0, startAy, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (!active[i])
+				flags[i] &= ~BodyStore.PULLED;
+			else if ((flags[i] & BodyStore.PULLED) != 0)
+				evaluations++;
+		}
+		bodies.evaluateFields();
+		System.arraycopy(savedFlags, 0, flags, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (!active[i]) {
+				ax[i] = startAx[i];
+				ay[i] = startAy[i];
+			}
+		}
+	}
+
+	/**
+	 * @param stepLength the length of the step that just ended
+	 * @param dt the length of the whole block
+	 * @param time the substep the body is at
+	 * @return the level for the next step of the body in the given slot
+	 */
+	private int chooseLevel(BodyStore bodies, int slot, double stepLength, double dt, int time) {
+		double accX = bodies.ax[slot], accY = bodies.ay[slot];
+		double jerkX = (accX - startAx[slot]) / stepLength;
+		double jerkY = (accY - startAy[slot]) / stepLength;
+		double acc = Math.sqrt(accX * accX + accY * accY);
+		double jerk = Math.sqrt(jerkX * jerkX + jerkY * jerkY);
+		int wanted = 0;
+		if (jerk != 0 && acc != 0) {
+			// the smallest k with dt * 2^-k <= eta * acc / jerk
+			double ratio = dt * jerk / (eta * acc);
+			if (ratio > 1)
+				wanted = Math.min((int) Math.ceil(Math.log(ratio) / Math.log(2)), maxLevel);
+		}
+		int current = bodies.stepLevel[slot];
+		// a bigger step has to start at a time that fits it
+		while (wanted < current && time % (1 << (maxLevel - wanted)) != 0)
+			wanted++;
+		return wanted;
+	}
+
+	private void ensureCapacity(int count) {
+		if (active.length < count) {
+			int size = Math.max(count, active.length * 2);
+			savedFlags = new int[size];
+			startAx = new double[size];
+			startAy = new double[size];
+			active = new boolean[size];
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import hellomisterme.artillery_engine.util.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BodyStore keeps the physics state of many FreeBodies packed into parallel arrays, so that behaviors can loop over
+ * plain doubles instead of chasing FreeBody -> Entity -> Transform -> Vector for every pair of bodies.
+ *
+ * The FreeBody fields are still what scripts and other components read and write. The store syncs with them once per
+ * tick in integrate(): it gathers the current state, lets its Integrator move every body in tight loops over the
+ * arrays, and writes the result back to the FreeBodies and their Entity transforms.
+ *
+ * There are two kinds of acceleration. ex and ey are external, gathered from FreeBody.acceleration (scripts, collisions)
+ * and constant for the whole tick. ax and ay come from the ForceFields (like Gravity) and are evaluated again whenever
+ * the integrator moves the bodies. After integrate() they hold the field accelerations at the new positions, which
+ * the next tick starts with, unless something moved the bodies in between.
+ *
+ * A tick can be split into substeps, either always or only when some body's acceleration is too large for one step.
+ * Bodies that simply orbit one primary can be taken out of the integration altogether with KeplerRails, and bodies that
+ * aren't doing anything can be put to sleep with SleepIslands.
+ *
+ * Slots are packed, so removing a body moves the last body into its slot. Don't hold on to slot numbers across
+ * structural changes, use slotOf() instead.
+ */
+public class BodyStore {
+
+	/** Flag for bodies that Gravity uses to pull others */
+	public static final int PULLS = 1;
+	/** Flag for bodies that Gravity pulls */
+	public static final int PULLED = 2;
+	/** Flag for bodies that would be pulled by Gravity, but are following a KeplerOrbit instead */
+	public static final int RAILS = 4;
+	/** Flag for bodies that are asleep, see SleepIslands */
+	public static final int ASLEEP = 8;
+	/** Flag for sleeping bodies that were pulled by Gravity before they fell asleep */
+	public static final int SLEPT_PULLED = 16;
+
+	public double[] x, y, vx, vy, ax, ay, ex, ey, mass;
+	/** Behavior membership flags, see PULLS and PULLED */
+	public int[] flags;
+	/** The orbit of each body that is on rails, or null */
+	public KeplerOrbit[] orbits;
+	/** How many ticks each body has been quiet for, and the island it fell asleep with. Used by SleepIslands. */
+	public int[] quietTicks, island;
+	/** The step size level of each body for BlockTimestep, or -1 if it hasn't got one yet */
+	public int[] stepLevel;
+
+	public Integrator integrator = new SemiImplicitEuler();
+	/** The number of steps each tick is always split into */
+	public int substeps = 1;
+	/** If true, a tick is split into more steps when accelerations are large, see adaptiveAcceleration */
+	public boolean adaptive = false;
+	/** In adaptive mode, ticks are split so that acceleration * step * step stays below this for every body */
+	public double adaptiveAcceleration = 0.05;
+	/** Adaptive mode never splits a tick into more steps than this */
+	public int maxSubsteps = 64;
+	/** If not null, puts bodies that orbit a single dominant primary on rails */
+	public KeplerRails rails = null;
+	/** If not null, lets bodies that aren't doing anything fall asleep */
+	public SleepIslands sleep = null;
+
+	private FreeBody[] bodies;
+	private int count = 0;
+
+	private List<ForceField> fields = new ArrayList<>();
+	// true if ax and ay may not match the current positions
+	private boolean fieldsDirty = true;
+
+	public BodyStore() {
+		this(64);
+	}
+
+	public BodyStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		bodies = new FreeBody[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		ex = new double[capacity];
+		ey = new double[capacity];
+		mass = new double[capacity];
+		flags = new int[capacity];
+		orbits = new KeplerOrbit[capacity];
+		quietTicks = new int[capacity];
+		island = new int[capacity];
+		stepLevel = new int[capacity];
+	}
+
+	/**
+	 * Adds a FreeBody to this store. Does nothing if it is already in it.
+	 *
+	 * @return the slot of the body
+	 */
+	public int add(FreeBody body) {
+		if (body.store == this)
+			return body.slot;
+		if (body.store != null)
+			body.store.remove(body);
+		if (count == bodies.length)
+			grow(count * 2);
+		int slot = count++;
+		bodies[slot] = body;
+		body.store = this;
+		body.slot = slot;
+		ax[slot] = 0;
+		ay[slot] = 0;
+		ex[slot] = 0;
+		ey[slot] = 0;
+		flags[slot] = 0;
+		orbits[slot] = null;
+		quietTicks[slot] = 0;
+		island[slot] = 0;
+		stepLevel[slot] = -1;
+		gather(slot);
+		fieldsDirty = true;
+		return slot;
+	}
+
+	/**
+	 * Removes a FreeBody from this store. The body goes back to integrating itself.
+	 */
+	public void remove(FreeBody body) {
+		if (body.store != this)
+			return;
+		int slot = body.slot;
+		if (rails != null)
+			rails.release(this, slot);
+		if (sleep != null)
+			sleep.removed(this, slot);
+		int last = --count;
+		if (slot != last) {
+			bodies[slot] = bodies[last];
+			bodies[slot].slot = slot;
+			x[slot] = x[last];
+			y[slot] = y[last];
+			vx[slot] = vx[last];
+			vy[slot] = vy[last];
+			ax[slot] = ax[last];
+			ay[slot] = ay[last];
+			ex[slot] = ex[last];
+			ey[slot] = ey[last];
+			mass[slot] = mass[last];
+			flags[slot] = flags[last];
+			orbits[slot] = orbits[last];
+			quietTicks[slot] = quietTicks[last];
+			island[slot] = island[last];
+			stepLevel[slot] = stepLevel[last];
+		}
+		bodies[last] = null;
+		orbits[last] = null;
+		body.store = null;
+		body.slot = -1;
+		fieldsDirty = true;
+	}
+
+	public boolean contains(FreeBody body) {
+		return body != null && body.store == this;
+	}
+
+	/** @return the slot of the given body, or -1 if it isn't in this store */
+	public int slotOf(FreeBody body) {
+		return contains(body) ? body.slot : -1;
+	}
+
+	/**
+	 * Records that two bodies are touching, for SleepIslands. Does nothing if sleeping is off.
+	 */
+	public void touch(FreeBody a, FreeBody b) {
+		if (sleep != null && contains(a) && contains(b))
+			sleep.touch(a.slot, b.slot);
+	}
+
+	/**
+	 * @return the number of sleeping bodies
+	 */
+	public int countAsleep() {
+		return sleep == null ? 0 : sleep.countAsleep();
+	}
+
+	public FreeBody get(int slot) {
+		return bodies[slot];
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Adds a ForceField that the integrator evaluates for the bodies in this store.
+	 */
+	public void addField(ForceField field) {
+		fields.add(field);
+		fieldsDirty = true;
+	}
+
+	public void removeField(ForceField field) {
+		fields.remove(field);
+		fieldsDirty = true;
+	}
+
+	/**
+	 * Call this when something changes the ForceFields without going through the store, like a body's flags, so the field
+	 * accelerations are evaluated again before the next tick.
+	 */
+	public void markDirty() {
+		fieldsDirty = true;
+	}
+
+	/**
+	 * Replaces ax and ay with the accelerations of all the ForceFields at the current positions.
+	 */
+	public void evaluateFields() {
+		if (fields.isEmpty())
+			return;
+		Arrays.fill(ax, 0, count, 0);
+		Arrays.fill(ay, 0, count, 0);
+		for (int i = 0; i < fields.size(); i++)
+			fields.get(i).accumulate();
+	}
+
+	/**
+	 * Moves every body forward one tick with the integrator.
+	 */
+	public void integrate() {
+		// gather anything that was changed on the FreeBodies since the last tick (scripts, collisions...)
+		for (int i = 0; i < count; i++) {
+			boolean moved = gather(i);
+			if (moved)
+				fieldsDirty = true;
+			Vector acc = bodies[i].acceleration;
+			ex[i] = acc.x;
+			ey[i] = acc.y;
+			acc.x = 0;
+			acc.y = 0;
+			// something other than gravity got involved, so the orbit isn't valid any more
+			if (rails != null && orbits[i] != null && (moved || ex[i] != 0 || ey[i] != 0))
+				rails.release(this, i);
+			// sleeping bodies don't move, so anything like that means something woke them up
+			if (sleep != null && (flags[i] & ASLEEP) != 0 && (moved || ex[i] != 0 || ey[i] != 0 || vx[i] != 0 || vy[i] != 0))
+				sleep.wake(this, i);
+		}
+		if (sleep != null)
+			sleep.wakePending(this);
+		if (fieldsDirty)
+			evaluateFields();
+		fieldsDirty = false;
+		if (sleep != null)
+			sleep.countQuiet(this);
+
+		int steps = Math.max(substeps, 1);
+		if (adaptive)
+			steps = Math.max(steps, adaptiveSubsteps());
+		double dt = 1.0 / steps;
+		for (int step = 0; step < steps; step++)
+			integrator.step(this, dt);
+		if (rails != null) {
+			rails.propagate(this);
+			rails.update(this);
+		}
+
+		// ax and ay are only ever used together with the external acceleration, so without fields they are used up now
+		if (fields.isEmpty()) {
+			Arrays.fill(ax, 0, count, 0);
+			Arrays.fill(ay, 0, count, 0);
+		}
+
+		for (int i = 0; i < count; i++) {
+			FreeBody body = bodies[i];
+			body.velocity.x = vx[i];
+			body.velocity.y = vy[i];
+			if (body.entity != null) {
+				Vector pos = body.entity.transform.position;
+				pos.x = x[i];
+				pos.y = y[i];
+				body.entity.transform.rotation += body.spin;
+			}
+		}
+	}
+
+	/**
+	 * @return how many steps this tick needs so that no body's acceleration is too big for its step
+	 */
+	private int adaptiveSubsteps() {
+		double maxAcc2 = 0;
+		for (int i = 0; i < count; i++) {
+			double accX = ax[i] + ex[i];
+			double accY = ay[i] + ey[i];
+			maxAcc2 = Math.max(maxAcc2, accX * accX + accY * accY);
+		}
+		// acceleration * dt * dt <= adaptiveAcceleration, with dt = 1 / steps
+		int steps = (int) Math.ceil(Math.sqrt(Math.sqrt(maxAcc2) / adaptiveAcceleration));
+		return Math.min(Math.max(steps, 1), maxSubsteps);
+	}
+
+	/**
+	 * Copies the state of a FreeBody into its slot.
+	 *
+	 * @return true if its position or mass changed, which means the field accelerations are out of date
+	 */
+	private boolean gather(int slot) {
+		FreeBody body = bodies[slot];
+		boolean changed = false;
+		if (body.entity != null) {
+			Vector pos = body.entity.transform.position;
+			changed = pos.x != x[slot] || pos.y != y[slot];
+			x[slot] = pos.x;
+			y[slot] = pos.y;
+		}
+		changed |= body.mass != mass[slot];
+		vx[slot] = body.velocity.x;
+		vy[slot] = body.velocity.y;
+		mass[slot] = body.mass;
+		return changed;
+	}
+
+	private void grow(int capacity) {
+		bodies = Arrays.copyOf(bodies, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		ax = Arrays.copyOf(ax, capacity);
+		ay = Arrays.copyOf(ay, capacity);
+		ex = Arrays.copyOf(ex, capacity);
+		ey = Arrays.copyOf(ey, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		orbits = Arrays.copyOf(orbits, capacity);
+		quietTicks = Arrays.copyOf(quietTicks, capacity);
+		island = Arrays.copyOf(island, capacity);
+		stepLevel = Arrays.copyOf(stepLevel, capacity);
+	}
+}
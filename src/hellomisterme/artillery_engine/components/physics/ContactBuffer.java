@@ -0,0 +1,48 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import java.util.Arrays;
+
+/**
+ * A ContactBuffer holds the contacts found in one tick in parallel arrays, so that finding them doesn't create any
+ * objects. It keeps its arrays from tick to tick and only grows.
+ *
+ * A contact is between the bodies a and b (as indices chosen by whoever fills the buffer). The normal is the unit vector
+ * pointing from a to b, and depth is how far they overlap along it. impulse is how hard the contact has pushed them apart
+ * so far this tick, starting from what a ContactCache remembers from the last tick.
+ */
+public class ContactBuffer {
+
+	public int[] a = new int[64], b = new int[64];
+	public double[] normalX = new double[64], normalY = new double[64], depth = new double[64], impulse = new double[64];
+	private int count = 0;
+
+	/**
+	 * @return the index of the new contact
+	 */
+	public int add(int a, int b, double normalX, double normalY, double depth) {
+		if (count == this.a.length) {
+			int size = count * 2;
+			this.a = Arrays.copyOf(this.a, size);
+			this.b = Arrays.copyOf(this.b, size);
+			this.normalX = Arrays.copyOf(this.normalX, size);
+			this.normalY = Arrays.copyOf(this.normalY, size);
+			this.depth = Arrays.copyOf(this.depth, size);
+			this.impulse = Arrays.copyOf(this.impulse, size);
+		}
+		this.a[count] = a;
+		this.b[count] = b;
+		this.normalX[count] = normalX;
+		this.normalY[count] = normalY;
+		this.depth[count] = depth;
+		this.impulse[count] = 0;
+		return count++;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+}
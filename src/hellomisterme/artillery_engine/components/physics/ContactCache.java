@@ -0,0 +1,176 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import java.util.Arrays;
+
+/**
+ * ContactCache remembers the impulse of every contact from one tick to the next, keyed by the pair of bodies (as the
+ * indices used in the ContactBuffer). Bodies resting on each other need about the same impulse every tick, so starting
+ * from last tick's lets the solver settle in an iteration or two instead of bouncing them apart and back together.
+ *
+ * Only the contacts of the last tick are kept, so a pair is forgotten as soon as it separates. Pairs are kept with the
+ * lower index first, and their normal turned around to match, so they are found whichever way around they come.
+ */
+public class ContactCache {
+
+	// open addressing table of last tick's contacts, with the lower index in the high half of the key. The normal is
+	// kept so that an impulse along a normal that has turned since can be scaled down.
+	private long[] keys = new long[64];
+	private double[] impulses = new double[64], normalsX = new double[64], normalsY = new double[64];
+	private boolean[] used = new boolean[64];
+	private int size = 0;
+
+	// the table being filled by store(), swapped with the one above
+	private long[] nextKeys = new long[64];
+	private double[] nextImpulses = new double[64], nextNormalsX = new double[64], nextNormalsY = new double[64];
+	private boolean[] nextUsed = new boolean[64];
+
+	/**
+	 * Sets the impulse of every contact to what the same pair had last tick, or 0 if it is new.
+	 */
+	public void warmStart(ContactBuffer contacts) {
+		int mask = keys.length - 1;
+		for (int k = 0; k < contacts.size(); k++) {
+			contacts.impulse[k] = 0;
+			if (size == 0)
+				continue;
+			int a = contacts.a[k], b = contacts.b[k];
+			long key = key(a, b);
+			for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					// only the part along the new normal still pushes the right way
+					double alignment = normalsX[slot] * contacts.normalX[k] + normalsY[slot] * contacts.normalY[k];
+					if (a > b)
+						alignment = -alignment;
+					contacts.impulse[k] = impulses[slot] * Math.max(alignment, 0);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remembers the impulses of this tick's contacts, and forgets all the others.
+	 */
+	public void store(ContactBuffer contacts) {
+		int n = contacts.size();
+		prepareNext(n);
+		int stored = 0;
+		for (int k = 0; k < n; k++) {
+			if (contacts.impulse[k] == 0)
+				continue; // nothing to start from
+			if (putNext(contacts.a[k], contacts.b[k], contacts.impulse[k], contacts.normalX[k], contacts.normalY[k]))
+				stored++;
+		}
+		swap(stored);
+	}
+
+	/**
+	 * Keeps up with a body being taken out by moving the last one into its place: forgets the contacts of the body at
+	 * removed, and gives the contacts of the body at moved its new index.
+	 */
+	public void moved(int moved, int removed) {
+		if (size == 0)
+			return;
+		prepareNext(size);
+		int stored = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (!used[slot])
+				continue;
+			int a = (int) (keys[slot] >>> 32), b = (int) keys[slot];
+			if (a == removed || b == removed)
+				continue;
+			if (a == moved)
+				a = removed;
+			if (b == moved)
+				b = removed;
+			if (putNext(a, b, impulses[slot], normalsX[slot], normalsY[slot]))
+				stored++;
+		}
+		swap(stored);
+	}
+
+	/**
+	 * Empties the table that store() and moved() fill, big enough for n contacts.
+	 */
+	private void prepareNext(int n) {
+		int capacity = 64;
+		while (capacity < n * 2)
+			capacity <<= 1;
+		if (nextKeys.length != capacity) {
+			nextKeys = new long[capacity];
+			nextImpulses = new double[capacity];
+			nextNormalsX = new double[capacity];
+			nextNormalsY = new double[capacity];
+			nextUsed = new boolean[capacity];
+		} else {
+			Arrays.fill(nextUsed, false);
+		}
+	}
+
+	/**
+	 * @return true if the pair wasn't in the next table yet
+	 */
+	private boolean putNext(int a, int b, double impulse, double normalX, double normalY) {
+		if (a > b) {
+			normalX = -normalX;
+			normalY = -normalY;
+		}
+		long key = key(a, b);
+		int mask = nextKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (nextUsed[slot] && nextKeys[slot] != key)
+			slot = (slot + 1) & mask;
+		boolean added = !nextUsed[slot];
+		nextUsed[slot] = true;
+		nextKeys[slot] = key;
+		nextImpulses[slot] = impulse;
+		nextNormalsX[slot] = normalX;
+		nextNormalsY[slot] = normalY;
+		return added;
+	}
+
+	private void swap(int stored) {
+		long[] k = keys;
+		keys = nextKeys;
+		nextKeys = k;
+		double[] d = impulses;
+		impulses = nextImpulses;
+		nextImpulses = d;
+		d = normalsX;
+		normalsX = nextNormalsX;
+		nextNormalsX = d;
+		d = normalsY;
+		normalsY = nextNormalsY;
+		nextNormalsY = d;
+		boolean[] u = used;
+		used = nextUsed;
+		nextUsed = u;
+		size = stored;
+	}
+
+	/**
+	 * Forgets everything, for when the indices of many bodies change at once.
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of contacts remembered from the last tick
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static long key(int a, int b) {
+		if (a > b)
+			return ((long) b << 32) | (a & 0xFFFFFFFFL);
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
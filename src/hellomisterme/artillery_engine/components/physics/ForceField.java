@@ -0,0 +1,13 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * A ForceField accelerates the bodies of a BodyStore depending on where they are, like gravity does.
+ * Integrators call it whenever they need the accelerations at new positions, possibly several times per tick.
+ */
+public interface ForceField {
+
+	/**
+	 * Adds the acceleration of this field at the current positions in the BodyStore to its ax and ay arrays.
+	 */
+	public void accumulate();
+}
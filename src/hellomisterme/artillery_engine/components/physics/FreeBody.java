@@ -28,9 +28,21 @@ public class FreeBody extends Component implements Tick, Renderable {
 	public double spin = 0.0;
 	
 	public boolean collisionOn = true;
+	/** The collision layers this body is in, as bits */
+	public int collisionCategory = 1;
+	/** The layers this body collides with. Two bodies only collide if each one's category shares a bit with the other's mask. */
+	public int collisionMask = -1;
+	/** Bullets are fast, so Collision checks their whole path through the tick instead of just where they end up */
+	public boolean bullet = false;
 	public boolean pullsWithGravity = true;
 	public boolean pulledByGravity = true;
 	
+	// set by the BodyStore this body is packed into, if any
+	BodyStore store = null;
+	int slot = -1;
+	// the number of bodies orbiting this one on rails
+	int satellites = 0;
+	
 	public static FreeBody create(Vector velocity, double mass, double spin) {
 		FreeBody body = new FreeBody();
 		body.velocity = velocity;
@@ -49,17 +61,32 @@ public class FreeBody extends Component implements Tick, Renderable {
 		return body;
 	}
 	
+	/**
+	 * Integrates this body, unless it is in a BodyStore. Stored bodies are integrated all at once by BodyStore.integrate().
+	 */
 	@Override
 	public void tick() {
+		if (store != null)
+			return;
 		velocity.add(acceleration);
-		acceleration = new Vector();
+		acceleration.x = 0;
+		acceleration.y = 0;
 		entity.transform.position.add(velocity);
 		entity.transform.rotation += spin;
 	}
 	
 	public void applyForce(Vector force) {
-		if (mass != 0.0)
-			acceleration.add(new Vector(force).div(mass));
+		applyForce(force.x, force.y);
+	}
+	
+	/**
+	 * Applies a force to the center of this body. Doesn't create any objects, so it is safe to call in tight loops.
+	 */
+	public void applyForce(double forceX, double forceY) {
+		if (mass != 0.0) {
+			acceleration.x += forceX / mass;
+			acceleration.y += forceY / mass;
+		}
 	}
 	
 	/**
@@ -69,16 +96,64 @@ public class FreeBody extends Component implements Tick, Renderable {
 	 * @param position the location (relative to entity) of the application of force
 	 */
 	public void applyForce(Vector force, Vector position) {
+		applyForce(force.x, force.y, position.x, position.y);
+	}
+	
+	/**
+	 * Applies a force applied at a non-center position. Doesn't create any objects.
+	 * 
+	 * @param positionX the x location (relative to entity) of the application of force
+	 * @param positionY the y location (relative to entity) of the application of force
+	 */
+	public void applyForce(double forceX, double forceY, double positionX, double positionY) {
 		if (mass != 0.0) {
-			Vector f = new Vector(force).project(position);
-			double t = new Vector(force).sub(f).magnitude();
-			acceleration.add(f.div(mass));
-			spin += t * position.magnitude();
+			// project the force onto the position, the part that doesn't line up with the position becomes spin
+			double dist2 = positionX * positionX + positionY * positionY;
+			double projection = (forceX * positionX + forceY * positionY) / dist2;
+			double fx = projection * positionX;
+			double fy = projection * positionY;
+			double t = Math.hypot(forceX - fx, forceY - fy);
+			acceleration.x += fx / mass;
+			acceleration.y += fy / mass;
+			spin += t * Math.sqrt(dist2);
 		}
 	}
 	
+	/**
+	 * @return true if this body is asleep, see SleepIslands
+	 */
+	public boolean isAsleep() {
+		return store != null && (store.flags[slot] & BodyStore.ASLEEP) != 0;
+	}
+	
+	/**
+	 * Wakes this body up if it is asleep
+	 */
+	public void wake() {
+		if (store != null && store.sleep != null)
+			store.sleep.wake(store, slot);
+	}
+	
 	public Vector getMomentum() {
-		return new Vector(velocity).mul(mass);
+		return getMomentum(new Vector());
+	}
+	
+	/**
+	 * Stores the momentum of this body in the given Vector instead of creating a new one.
+	 * 
+	 * @return result
+	 */
+	public Vector getMomentum(Vector result) {
+		result.x = velocity.x * mass;
+		result.y = velocity.y * mass;
+		return result;
+	}
+	
+	/**
+	 * @return the dot product of this body's momentum with the given direction, without creating any objects
+	 */
+	public double momentumAlong(double directionX, double directionY) {
+		return (velocity.x * directionX + velocity.y * directionY) * mass;
 	}
 	
 	/**
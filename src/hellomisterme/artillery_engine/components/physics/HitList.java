@@ -0,0 +1,150 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import hellomisterme.artillery_engine.Entity;
+
+import java.util.Arrays;
+
+/**
+ * A HitList holds the results of a query on the World, like a raycast, sorted by distance with the closest first. It keeps
+ * its arrays from query to query and only grows, so it can be reused without creating any objects.
+ *
+ * For each hit there is the entity, how far away it is (along the cast for casts), the point that was hit and the normal
+ * of the surface there, pointing out of the entity. A query adds its hits in whatever order it finds them, then sorts
+ * them once at the end.
+ */
+public class HitList {
+
+	/** Only entities whose collision category shares a bit with this are found */
+	public int mask = -1;
+
+	public Entity[] entities = new Entity[16];
+	public double[] distance = new double[16], x = new double[16], y = new double[16], normalX = new double[16], normalY = new double[16];
+	private int count = 0;
+
+	// the indices of the hits in sorted order, and the arrays they are copied into, swapped with the ones above
+	private int[] order = new int[16], merged = new int[16];
+	private Entity[] sortedEntities = new Entity[16];
+	private double[] sortedDistance = new double[16], sortedX = new double[16], sortedY = new double[16];
+	private double[] sortedNormalX = new double[16], sortedNormalY = new double[16];
+
+	/**
+	 * Adds a hit at the end. Call sort() once they are all in.
+	 */
+	public void add(Entity entity, double distance, double x, double y, double normalX, double normalY) {
+		if (count == entities.length) {
+			int size = count * 2;
+			entities = Arrays.copyOf(entities, size);
+			this.distance = Arrays.copyOf(this.distance, size);
+			this.x = Arrays.copyOf(this.x, size);
+			this.y = Arrays.copyOf(this.y, size);
+			this.normalX = Arrays.copyOf(this.normalX, size);
+			this.normalY = Arrays.copyOf(this.normalY, size);
+		}
+		entities[count] = entity;
+		this.distance[count] = distance;
+		this.x[count] = x;
+		this.y[count] = y;
+		this.normalX[count] = normalX;
+		this.normalY[count] = normalY;
+		count++;
+	}
+
+	/**
+	 * Sorts the hits by distance, closest first. Equally distant hits stay in the order they were added.
+	 */
+	public void sort() {
+		if (count < 2)
+			return;
+		if (order.length < entities.length) {
+			int size = entities.length;
+			order = new int[size];
+			merged = new int[size];
+			sortedEntities = new Entity[size];
+			sortedDistance = new double[size];
+			sortedX = new double[size];
+			sortedY = new double[size];
+			sortedNormalX = new double[size];
+			sortedNormalY = new double[size];
+		}
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		sortOrder(0, count);
+
+		for (int i = 0; i < count; i++) {
+			int from = order[i];
+			sortedEntities[i] = entities[from];
+			sortedDistance[i] = distance[from];
+			sortedX[i] = x[from];
+			sortedY[i] = y[from];
+			sortedNormalX[i] = normalX[from];
+			sortedNormalY[i] = normalY[from];
+		}
+		Arrays.fill(entities, 0, count, null);
+		Entity[] e = entities;
+		entities = sortedEntities;
+		sortedEntities = e;
+		double[] d = distance;
+		distance = sortedDistance;
+		sortedDistance = d;
+		d = x;
+		x = sortedX;
+		sortedX = d;
+		d = y;
+		y = sortedY;
+		sortedY = d;
+		d = normalX;
+		normalX = sortedNormalX;
+		sortedNormalX = d;
+		d = normalY;
+		normalY = sortedNormalY;
+		sortedNormalY = d;
+	}
+
+	/**
+	 * Merge sorts order[from, to) by distance, with insertion sort for short runs.
+	 */
+	private void sortOrder(int from, int to) {
+		if (to - from <= 16) {
+			for (int i = from + 1; i < to; i++) {
+				int o = order[i];
+				double d = distance[o];
+				int j = i;
+				while (j > from && distance[order[j - 1]] > d) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = o;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sortOrder(from, middle);
+		sortOrder(middle, to);
+		if (distance[order[middle - 1]] <= distance[order[middle]])
+			return; // already in order
+		merge(from, middle, to);
+	}
+
+	private void merge(int from, int middle, int to) {
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to)
+			merged[k++] = distance[order[j]] < distance[order[i]] ? order[j++] : order[i++];
+		while (i < middle)
+			merged[k++] = order[i++];
+		while (j < to)
+			merged[k++] = order[j++];
+		System.arraycopy(merged, from, order, from, to - from);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Forgets the hits, letting go of the entities.
+	 */
+	public void clear() {
+		Arrays.fill(entities, 0, count, null);
+		count = 0;
+	}
+}
@@ -0,0 +1,38 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * An Integrator moves the bodies of a BodyStore forward in time.
+ *
+ * When step() is called, ax and ay hold the ForceField accelerations at the current positions, and ex and ey hold the
+ * external accelerations (from scripts, collisions...) which stay the same for the whole tick. When step() returns,
+ * ax and ay must hold the ForceField accelerations at the new positions, so the next step can use them without
+ * evaluating the fields again. Integrators that evaluate more than once per step only see forces that are added to the
+ * BodyStore as ForceFields.
+ */
+public abstract class Integrator {
+
+	/**
+	 * Moves every body forward by dt ticks.
+	 */
+	public abstract void step(BodyStore bodies, double dt);
+
+	/** Changes velocity by the current accelerations over dt */
+	protected static void kick(BodyStore bodies, double dt) {
+		int count = bodies.size();
+		double[] vx = bodies.vx, vy = bodies.vy, ax = bodies.ax, ay = bodies.ay, ex = bodies.ex, ey = bodies.ey;
+		for (int i = 0; i < count; i++) {
+			vx[i] += (ax[i] + ex[i]) * dt;
+			vy[i] += (ay[i] + ey[i]) * dt;
+		}
+	}
+
+	/** Changes position by the current velocities over dt */
+	protected static void drift(BodyStore bodies, double dt) {
+		int count = bodies.size();
+		double[] x = bodies.x, y = bodies.y, vx = bodies.vx, vy = bodies.vy;
+		for (int i = 0; i < count; i++) {
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * A KeplerOrbit is an elliptical two-body orbit around a primary FreeBody, described by its orbital elements instead of
+ * a position and velocity. It can tell where the orbiting body is at any time without integrating, which makes
+ * propagating it as cheap as solving Kepler's equation once.
+ *
+ * The position and velocity are relative to the primary, and are stored in x, y, vx and vy by advance() so that no
+ * objects are created.
+ */
+public class KeplerOrbit {
+
+	private static final double TWO_PI = Math.PI * 2;
+
+	/** The body being orbited */
+	public FreeBody primary;
+
+	/** The relative position and velocity, as of the last call to set() or advance() */
+	public double x, y, vx, vy;
+
+	private double mu; // gravitational parameter, the sum of both masses since our gravitational constant is 1
+	private double semiMajorAxis, eccentricity, argPeriapsis, meanMotion, meanAnomaly;
+	private double direction; // 1 for counter-clockwise (in math coordinates) orbits, -1 for clockwise
+
+	/**
+	 * Calculates the orbital elements from a relative position and velocity.
+	 *
+	 * @param mu the sum of the masses of the primary and the orbiting body
+	 * @param maxEccentricity orbits more eccentric than this are refused
+	 * @return false if the body isn't in a bound orbit (or is too eccentric), in which case this orbit is not usable
+	 */
+	public boolean set(FreeBody primary, double rx, double ry, double rvx, double rvy, double mu, double maxEccentricity) {
+		double r = Math.sqrt(rx * rx + ry * ry);
+		if (r == 0 || mu <= 0)
+			return false;
+		double v2 = rvx * rvx + rvy * rvy;
+		double energy = v2 * 0.5 - mu / r;
+		if (energy >= 0)
+			return false; // escaping, not an ellipse
+
+		double h = rx * rvy - ry * rvx;
+		double rv = rx * rvx + ry * rvy;
+		double eX = ((v2 - mu / r) * rx - rv * rvx) / mu;
+		double eY = ((v2 - mu / r) * ry - rv * rvy) / mu;
+		double ecc = Math.sqrt(eX * eX + eY * eY);
+		if (ecc > maxEccentricity || h == 0)
+			return false;
+
+		this.primary = primary;
+		this.mu = mu;
+		semiMajorAxis = -mu / (2 * energy);
+		eccentricity = ecc;
+		argPeriapsis = ecc == 0 ? 0 : Math.atan2(eY, eX);
+		direction = h > 0 ? 1 : -1;
+		meanMotion = Math.sqrt(mu / (semiMajorAxis * semiMajorAxis * semiMajorAxis));
+
+		double trueAnomaly = direction * (Math.atan2(ry, rx) - argPeriapsis);
+		double eccentricAnomaly = Math.atan2(Math.sqrt(1 - ecc * ecc) * Math.sin(trueAnomaly), ecc + Math.cos(trueAnomaly));
+		meanAnomaly = eccentricAnomaly - ecc * Math.sin(eccentricAnomaly);
+
+		x = rx;
+		y = ry;
+		vx = rvx;
+		vy = rvy;
+		return true;
+	}
+
+	/**
+	 * Moves the orbiting body forward in time and updates x, y, vx and vy.
+	 *
+	 * @param dt the time to advance, in ticks
+	 */
+	public void advance(double dt) {
+		meanAnomaly = (meanAnomaly + meanMotion * dt) % TWO_PI;
+		double e = eccentricity;
+		double eccentricAnomaly = solveKepler(meanAnomaly, e);
+		double cosE = Math.cos(eccentricAnomaly);
+		double sinE = Math.sin(eccentricAnomaly);
+		double root = Math.sqrt(1 - e * e);
+
+		// position and velocity in the orbit's own frame, with periapsis along the x axis
+		double px = semiMajorAxis * (cosE - e);
+		double py = semiMajorAxis * root * sinE;
+		double r = semiMajorAxis * (1 - e * cosE);
+		double speed = Math.sqrt(mu * semiMajorAxis) / r;
+		double pvx = -speed * sinE;
+		double pvy = speed * root * cosE;
+
+		// mirror clockwise orbits, then rotate periapsis into place
+		py *= direction;
+		pvy *= direction;
+		double cos = Math.cos(argPeriapsis);
+		double sin = Math.sin(argPeriapsis);
+		x = px * cos - py * sin;
+		y = px * sin + py * cos;
+		vx = pvx * cos - pvy * sin;
+		vy = pvx * sin + pvy * cos;
+	}
+
+	/**
+	 * Solves Kepler's equation M = E - e * sin(E) for E with Newton's method.
+	 */
+	private static double solveKepler(double meanAnomaly, double e) {
+		double eccentricAnomaly = e < 0.8 ? meanAnomaly : Math.PI;
+		for (int i = 0; i < 16; i++) {
+			double delta = (eccentricAnomaly - e * Math.sin(eccentricAnomaly) - meanAnomaly) / (1 - e * Math.cos(eccentricAnomaly));
+			eccentricAnomaly -= delta;
+			if (Math.abs(delta) < 1e-12)
+				break;
+		}
+		return eccentricAnomaly;
+	}
+}
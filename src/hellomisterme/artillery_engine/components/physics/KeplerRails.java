@@ -0,0 +1,224 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import java.util.Arrays;
+
+/**
+ * KeplerRails puts bodies "on rails": when a body's motion is dominated by a single primary, it stops being integrated
+ * and pulled by gravity, and instead follows an analytic KeplerOrbit around that primary. Moons, debris and satellites
+ * then cost almost nothing per tick.
+ *
+ * Every checkInterval ticks, each body is compared against the heaviest pullers in the BodyStore. If the strongest of
+ * them dominates, meaning the tidal pull of the others (how differently they pull the body and the primary) is below
+ * enterPerturbation of the primary's pull, the body goes on rails. Bodies on rails are checked the same way and go back
+ * to numeric integration above exitPerturbation. They are also taken off rails right away if anything else pushes or
+ * moves them, like a collision or a script, or if the primary goes away.
+ *
+ * Only the heaviest pullers can be primaries and bodies with satellites never go on rails themselves, so a primary is
+ * always integrated.
+ */
+public class KeplerRails {
+
+	/** The number of heaviest pullers that are considered as primaries */
+	public int candidates = 8;
+	/** How often (in ticks) bodies are checked */
+	public int checkInterval = 30;
+	/** A body goes on rails if the perturbation on it is less than this fraction of its primary's pull */
+	public double enterPerturbation = 1e-4;
+	/** A body on rails goes back to integration if the perturbation on it is more than this fraction of its primary's pull */
+	public double exitPerturbation = 1e-3;
+	/** Orbits more eccentric than this are always integrated */
+	public double maxEccentricity = 0.95;
+
+	private int ticks = 0;
+	private int[] heaviest = new int[0];
+	private int heaviestCount = 0;
+	private int onRails = 0;
+	// the orbits of bodies that came off rails, reused for the next ones to go on. The last one is tried on each body
+	// that could go on rails, and only taken once a body keeps it.
+	private KeplerOrbit[] spares = new KeplerOrbit[8];
+	private int spareCount = 0;
+
+	/**
+	 * @return the number of bodies currently on rails
+	 */
+	public int countOnRails() {
+		return onRails;
+	}
+
+	/**
+	 * Moves the bodies on rails to where their orbits say they are. Called by the BodyStore after its integrator.
+	 */
+	void propagate(BodyStore bodies) {
+		if (onRails == 0)
+			return;
+		int count = bodies.size();
+		KeplerOrbit[] orbits = bodies.orbits;
+		for (int i = 0; i < count; i++) {
+			KeplerOrbit orbit = orbits[i];
+			if (orbit != null) {
+				int primary = bodies.slotOf(orbit.primary);
+				if (primary == -1 || (bodies.flags[i] & BodyStore.RAILS) == 0) {
+					release(bodies, i);
+					continue;
+				}
+				orbit.advance(1);
+				bodies.x[i] = bodies.x[primary] + orbit.x;
+				bodies.y[i] = bodies.y[primary] + orbit.y;
+				bodies.vx[i] = bodies.vx[primary] + orbit.vx;
+				bodies.vy[i] = bodies.vy[primary] + orbit.vy;
+			}
+		}
+	}
+
+	/**
+	 * Puts dominated bodies on rails and takes perturbed ones off, every checkInterval ticks.
+	 */
+	void update(BodyStore bodies) {
+		if (++ticks < checkInterval)
+			return;
+		ticks = 0;
+		findHeaviest(bodies);
+		if (heaviestCount == 0)
+			return;
+
+		int count = bodies.size();
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		int[] flags = bodies.flags;
+		for (int i = 0; i < count; i++) {
+			boolean railed = bodies.orbits[i] != null;
+			if ((!railed && ((flags[i] & BodyStore.PULLED) == 0 || mass[i] == 0)) || isHeavy(i))
+				continue;
+
+			// find the candidate that pulls hardest on this body
+			int primary = -1;
+			double primaryPull = 0;
+			if (railed) {
+				primary = bodies.slotOf(bodies.orbits[i].primary);
+				if (primary == -1) {
+					release(bodies, i);
+					continue;
+				}
+				primaryPull = pull(bodies, primary, x[i], y[i]);
+			} else {
+				for (int c = 0; c < heaviestCount; c++) {
+					double p = pull(bodies, heaviest[c], x[i], y[i]);
+					if (p > primaryPull) {
+						primaryPull = p;
+						primary = heaviest[c];
+					}
+				}
+			}
+			if (primary == -1 || primaryPull == 0)
+				continue;
+
+			// the tidal acceleration: how much more the other candidates pull this body than they pull the primary
+			double tidalX = 0, tidalY = 0;
+			for (int c = 0; c < heaviestCount; c++) {
+				int other = heaviest[c];
+				if (other != primary && other != i) {
+					double m = mass[other];
+					double bodyX = x[other] - x[i], bodyY = y[other] - y[i];
+					double primX = x[other] - x[primary], primY = y[other] - y[primary];
+					double bodyDist2 = bodyX * bodyX + bodyY * bodyY;
+					double primDist2 = primX * primX + primY * primY;
+					if (bodyDist2 != 0 && primDist2 != 0) {
+						double bodyA = m / (bodyDist2 * Math.sqrt(bodyDist2));
+						double primA = m / (primDist2 * Math.sqrt(primDist2));
+						tidalX += bodyX * bodyA - primX * primA;
+						tidalY += bodyY * bodyA - primY * primA;
+					}
+				}
+			}
+			double perturbation = Math.sqrt(tidalX * tidalX + tidalY * tidalY) / primaryPull;
+
+			if (railed) {
+				if (perturbation > exitPerturbation)
+					release(bodies, i);
+			} else if (perturbation < enterPerturbation && bodies.get(i).satellites == 0) {
+				attach(bodies, i, primary);
+			}
+		}
+	}
+
+	/**
+	 * Takes a body off rails. Its current position and velocity are kept, so it carries on smoothly.
+	 */
+	void release(BodyStore bodies, int slot) {
+		KeplerOrbit orbit = bodies.orbits[slot];
+		if (orbit == null)
+			return;
+		orbit.primary.satellites--;
+		orbit.primary = null;
+		bodies.orbits[slot] = null;
+		if (spareCount == spares.length)
+			spares = Arrays.copyOf(spares, spareCount * 2);
+		spares[spareCount++] = orbit;
+		if ((bodies.flags[slot] & BodyStore.RAILS) != 0) {
+			// it was pulled before it went on rails. If RAILS was cleared, it was taken out of gravity meanwhile.
+			bodies.flags[slot] &= ~BodyStore.RAILS;
+			bodies.flags[slot] |= BodyStore.PULLED;
+		}
+		bodies.markDirty();
+		onRails--;
+	}
+
+	private void attach(BodyStore bodies, int slot, int primary) {
+		if (spareCount == 0)
+			spares[spareCount++] = new KeplerOrbit();
+		KeplerOrbit orbit = spares[spareCount - 1];
+		double rx = bodies.x[slot] - bodies.x[primary];
+		double ry = bodies.y[slot] - bodies.y[primary];
+		double rvx = bodies.vx[slot] - bodies.vx[primary];
+		double rvy = bodies.vy[slot] - bodies.vy[primary];
+		if (orbit.set(bodies.get(primary), rx, ry, rvx, rvy, bodies.mass[primary] + bodies.mass[slot], maxEccentricity)) {
+			bodies.orbits[slot] = orbit;
+			spares[--spareCount] = null;
+			orbit.primary.satellites++;
+			// not pulled by Gravity any more, the orbit takes care of that
+			bodies.flags[slot] = (bodies.flags[slot] & ~BodyStore.PULLED) | BodyStore.RAILS;
+			bodies.markDirty();
+			onRails++;
+		}
+	}
+
+	/** @return the magnitude of the acceleration of the given puller on a body at (x, y) */
+	private static double pull(BodyStore bodies, int puller, double x, double y) {
+		double xDist = bodies.x[puller] - x;
+		double yDist = bodies.y[puller] - y;
+		double dist2 = xDist * xDist + yDist * yDist;
+		return dist2 == 0 ? 0 : bodies.mass[puller] / dist2;
+	}
+
+	private boolean isHeavy(int slot) {
+		for (int c = 0; c < heaviestCount; c++) {
+			if (heaviest[c] == slot)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the heaviest pullers which aren't on rails, sorted heaviest first.
+	 */
+	private void findHeaviest(BodyStore bodies) {
+		if (heaviest.length != candidates)
+			heaviest = new int[candidates];
+		heaviestCount = 0;
+		int count = bodies.size();
+		double[] mass = bodies.mass;
+		for (int i = 0; i < count; i++) {
+			if ((bodies.flags[i] & BodyStore.PULLS) == 0 || mass[i] == 0 || bodies.orbits[i] != null)
+				continue;
+			// insertion into the short sorted list
+			int pos = heaviestCount;
+			while (pos > 0 && mass[heaviest[pos - 1]] < mass[i])
+				pos--;
+			if (pos < candidates) {
+				int end = Math.min(heaviestCount, candidates - 1);
+				System.arraycopy(heaviest, pos, heaviest, pos + 1, end - pos);
+				heaviest[pos] = i;
+				heaviestCount = Math.min(heaviestCount + 1, candidates);
+			}
+		}
+	}
+}
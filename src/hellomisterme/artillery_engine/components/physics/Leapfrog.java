@@ -0,0 +1,16 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * Leapfrog, in its kick-drift-kick form also known as velocity Verlet. Second order and symplectic, so orbits stay
+ * closed over long times instead of spiraling in or out. Costs one field evaluation per step, the same as Euler.
+ */
+public class Leapfrog extends Integrator {
+
+	@Override
+	public void step(BodyStore bodies, double dt) {
+		kick(bodies, dt * 0.5);
+		drift(bodies, dt);
+		bodies.evaluateFields();
+		kick(bodies, dt * 0.5);
+	}
+}
@@ -0,0 +1,15 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * Semi-implicit Euler: first the velocity changes, then the position moves with the new velocity.
+ * Cheap and good enough for most things, but orbits slowly drift unless the step is small.
+ */
+public class SemiImplicitEuler extends Integrator {
+
+	@Override
+	public void step(BodyStore bodies, double dt) {
+		kick(bodies, dt);
+		drift(bodies, dt);
+		bodies.evaluateFields();
+	}
+}
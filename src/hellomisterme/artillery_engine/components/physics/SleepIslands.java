@@ -0,0 +1,208 @@
+package hellomisterme.artillery_engine.components.physics;
+
+import java.util.Arrays;
+
+/**
+ * SleepIslands lets bodies that aren't doing anything fall asleep, so that they stop costing anything in the BodyStore,
+ * Gravity and Collision until something happens to them.
+ *
+ * A body is quiet while its speed, spin and acceleration are below the thresholds. Bodies that touched each other this
+ * tick (reported by Collision through BodyStore.touch()) form an island, and an island falls asleep once every body in
+ * it has been quiet for sleepTicks ticks. A sleeping body stops moving and isn't pulled by Gravity, though it still pulls
+ * others.
+ *
+ * A sleeping body wakes up when a force is applied to it, when it is moved or given a velocity from outside the store, or
+ * when an awake body comes near it. When one body of an island wakes up, the rest of the island wakes up at the start of
+ * the next tick.
+ */
+public class SleepIslands {
+
+	/** Bodies slower than this (and spinning slower than this) may sleep */
+	public double sleepVelocity = 0.01;
+	/** Bodies with less acceleration than this may sleep */
+	public double sleepAcceleration = 0.001;
+	/** How many ticks a whole island has to be quiet before it falls asleep */
+	public int sleepTicks = 60;
+
+	// union-find over slots, rebuilt from scratch every tick
+	private int[] parent = new int[0];
+	private boolean islandsValid = true;
+
+	// scratch arrays for update(), indexed by the slot of an island's root
+	private int[] minQuiet = new int[0], rootIsland = new int[0];
+
+	// islands that have a woken body, the rest of them wakes up next tick
+	private int[] pending = new int[8];
+	private int pendingCount = 0;
+
+	private int nextIsland = 1;
+	private int asleep = 0;
+
+	/** @return the number of bodies that are asleep */
+	public int countAsleep() {
+		return asleep;
+	}
+
+	/**
+	 * Wakes up the rest of any islands that were disturbed. Called by the BodyStore at the start of the tick.
+	 */
+	void wakePending(BodyStore bodies) {
+		int count = bodies.size();
+		int[] flags = bodies.flags;
+		if (pendingCount > 0) {
+			for (int i = 0; i < count; i++) {
+				if ((flags[i] & BodyStore.ASLEEP) != 0) {
+					for (int p = 0; p < pendingCount; p++) {
+						if (bodies.island[i] == pending[p]) {
+							wake(bodies, i);
+							break;
+						}
+					}
+				}
+			}
+			pendingCount = 0;
+		}
+	}
+
+	/**
+	 * Counts how long each body has been quiet. Called by the BodyStore before the integrator, once the accelerations are
+	 * known.
+	 */
+	void countQuiet(BodyStore bodies) {
+		int count = bodies.size();
+		int[] flags = bodies.flags;
+		double v2 = sleepVelocity * sleepVelocity;
+		double a2 = sleepAcceleration * sleepAcceleration;
+		double[] vx = bodies.vx, vy = bodies.vy, ax = bodies.ax, ay = bodies.ay, ex = bodies.ex, ey = bodies.ey;
+		int[] quiet = bodies.quietTicks;
+		for (int i = 0; i < count; i++) {
+			if ((flags[i] & BodyStore.ASLEEP) != 0)
+				continue;
+			double accX = ax[i] + ex[i], accY = ay[i] + ey[i];
+			if (bodies.orbits[i] == null && vx[i] * vx[i] + vy[i] * vy[i] < v2 && accX * accX + accY * accY < a2
+					&& Math.abs(bodies.get(i).spin) < sleepVelocity)
+				quiet[i]++;
+			else
+				quiet[i] = 0;
+		}
+	}
+
+	/**
+	 * Records that two bodies touched this tick, which puts them in the same island.
+	 */
+	void touch(int a, int b) {
+		if (a >= parent.length || b >= parent.length)
+			return; // added this tick, they'll be counted next tick
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA != rootB)
+			parent[rootA] = rootB;
+	}
+
+	/**
+	 * Puts quiet islands to sleep and starts the islands for the next tick. Called at the end of the tick, once collisions
+	 * have been reported.
+	 */
+	public void update(BodyStore bodies) {
+		int count = bodies.size();
+		ensureCapacity(count);
+		if (islandsValid) {
+			int[] flags = bodies.flags;
+			int[] quiet = bodies.quietTicks;
+			for (int i = 0; i < count; i++) {
+				minQuiet[i] = Integer.MAX_VALUE;
+				rootIsland[i] = 0;
+			}
+			for (int i = 0; i < count; i++) {
+				if ((flags[i] & BodyStore.ASLEEP) == 0) {
+					int root = find(i);
+					minQuiet[root] = Math.min(minQuiet[root], quiet[i]);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				if ((flags[i] & BodyStore.ASLEEP) == 0) {
+					int root = find(i);
+					if (minQuiet[root] >= sleepTicks) {
+						if (rootIsland[root] == 0)
+							rootIsland[root] = nextIsland++;
+						sleep(bodies, i, rootIsland[root]);
+					}
+				}
+			}
+		}
+		for (int i = 0; i < parent.length; i++)
+			parent[i] = i;
+		islandsValid = true;
+	}
+
+	private void sleep(BodyStore bodies, int slot, int island) {
+		int flag = bodies.flags[slot] | BodyStore.ASLEEP;
+		if ((flag & BodyStore.PULLED) != 0)
+			flag = (flag & ~BodyStore.PULLED) | BodyStore.SLEPT_PULLED;
+		bodies.flags[slot] = flag;
+		bodies.island[slot] = island;
+		bodies.vx[slot] = 0;
+		bodies.vy[slot] = 0;
+		FreeBody body = bodies.get(slot);
+		body.velocity.x = 0;
+		body.velocity.y = 0;
+		body.spin = 0;
+		bodies.markDirty();
+		asleep++;
+	}
+
+	/**
+	 * Wakes up a body, and the rest of its island at the start of the next tick.
+	 */
+	void wake(BodyStore bodies, int slot) {
+		int flag = bodies.flags[slot];
+		if ((flag & BodyStore.ASLEEP) == 0)
+			return;
+		flag &= ~BodyStore.ASLEEP;
+		if ((flag & BodyStore.SLEPT_PULLED) != 0)
+			flag = (flag & ~BodyStore.SLEPT_PULLED) | BodyStore.PULLED;
+		bodies.flags[slot] = flag;
+		bodies.quietTicks[slot] = 0;
+		bodies.markDirty();
+		asleep--;
+
+		int island = bodies.island[slot];
+		for (int p = 0; p < pendingCount; p++) {
+			if (pending[p] == island)
+				return;
+		}
+		if (pendingCount == pending.length)
+			pending = Arrays.copyOf(pending, pendingCount * 2);
+		pending[pendingCount++] = island;
+	}
+
+	/**
+	 * Called by the BodyStore before it removes the body in the given slot.
+	 */
+	void removed(BodyStore bodies, int slot) {
+		if ((bodies.flags[slot] & BodyStore.ASLEEP) != 0)
+			asleep--;
+		// slots are about to move, so this tick's islands can't be trusted
+		islandsValid = false;
+	}
+
+	private int find(int slot) {
+		while (parent[slot] != slot) {
+			parent[slot] = parent[parent[slot]]; // path halving
+			slot = parent[slot];
+		}
+		return slot;
+	}
+
+	private void ensureCapacity(int count) {
+		if (parent.length < count) {
+			int size = Math.max(count, parent.length * 2);
+			int old = parent.length;
+			parent = Arrays.copyOf(parent, size);
+			for (int i = old; i < size; i++)
+				parent[i] = i;
+			minQuiet = new int[size];
+			rootIsland = new int[size];
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package hellomisterme.artillery_engine.components.physics;
+
+/**
+ * Yoshida's fourth order symplectic integrator, made of three leapfrog steps with carefully chosen lengths (the middle
+ * one goes backwards in time). Costs three field evaluations per step, but allows much bigger steps than leapfrog for
+ * the same accuracy.
+ */
+public class Yoshida extends Integrator {
+
+	private static final double CBRT2 = Math.cbrt(2);
+	private static final double W1 = 1 / (2 - CBRT2);
+	private static final double W0 = -CBRT2 / (2 - CBRT2);
+
+	private Leapfrog leapfrog = new Leapfrog();
+
+	@Override
+	public void step(BodyStore bodies, double dt) {
+		leapfrog.step(bodies, dt * W1);
+		leapfrog.step(bodies, dt * W0);
+		leapfrog.step(bodies, dt * W1);
+	}
+}
@@ -46,7 +46,9 @@ public class PlayerMovement extends Script implements Renderable {
 		else if (throttle > MAX_THROTTLE)
 			throttle = MAX_THROTTLE;
 		
-		freeBody.applyForce(entity.transform.FORWARD(throttle * enginePower));
+		double force = throttle * enginePower;
+		double rotation = entity.transform.rotation;
+		freeBody.applyForce(Math.cos(rotation) * force, Math.sin(rotation) * force);
 	}
 	
 	@Override
@@ -34,9 +34,28 @@ public class AABB {
 		this.bottom = bottom;
 	}
 
+	public AABB() {
+	}
+
+	public void set(double left, double right, double top, double bottom) {
+		this.left = left;
+		this.right = right;
+		this.top = top;
+		this.bottom = bottom;
+	}
+
 	public boolean intersects(AABB other) {
 		return right > other.left && left < other.right && top < other.bottom && bottom > other.top;
 	}
+
+	/** @return true if the other box is completely inside this one */
+	public boolean contains(AABB other) {
+		return left <= other.left && right >= other.right && top <= other.top && bottom >= other.bottom;
+	}
+
+	public boolean contains(double x, double y) {
+		return x >= left && x <= right && y >= top && y <= bottom;
+	}
 	
 	public void render(Graphics2D g) {
 		g.drawRect((int) left, (int) top, (int) right - (int) left, (int) bottom - (int) top);
@@ -0,0 +1,154 @@
+package hellomisterme.artillery_engine.geometry;
+
+import java.util.Arrays;
+
+/**
+ * AxisCache remembers which axis separated each pair of shapes, so the next test of the pair can try that axis first.
+ * Pairs are numbered by whoever uses the cache, and axes by the tests (like Polygon.test()). An axis is only a hint, so a
+ * stale one is harmless, it just doesn't help.
+ *
+ * Call nextTick() once per tick. Pairs that weren't put in during the last tick are forgotten once the table fills up.
+ */
+public class AxisCache {
+
+	// open addressing table, with a in the high half of the key and b in the low half. A stamp of 0 is an empty slot.
+	private long[] keys = new long[16];
+	private int[] axes = new int[16];
+	private int[] stamps = new int[16];
+	private int used = 0, tick = 1;
+	// the table moved() fills, swapped with the one above
+	private long[] spareKeys = new long[16];
+	private int[] spareAxes = new int[16], spareStamps = new int[16];
+
+	public void nextTick() {
+		tick++;
+	}
+
+	/**
+	 * @return the axis that separated the pair last time, or -1. Safe to call from several threads, as long as nothing
+	 * is put in at the same time.
+	 */
+	public int get(int a, int b) {
+		long key = key(a, b);
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; stamps[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return axes[slot];
+		}
+		return -1;
+	}
+
+	/**
+	 * Remembers the axis that separated a pair, or -1 if they overlapped.
+	 */
+	public void put(int a, int b, int axis) {
+		long key = key(a, b);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (stamps[slot] != 0) {
+			if (keys[slot] == key) {
+				axes[slot] = axis;
+				stamps[slot] = tick;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (axis == -1)
+			return; // nothing worth remembering
+		if ((used + 1) * 2 > keys.length) {
+			rehash();
+			put(a, b, axis);
+			return;
+		}
+		keys[slot] = key;
+		axes[slot] = axis;
+		stamps[slot] = tick;
+		used++;
+	}
+
+	/**
+	 * Keeps up with the shape numbered moved taking the number of the removed one: forgets the pairs of removed, and
+	 * renumbers the pairs of moved.
+	 */
+	public void moved(int moved, int removed) {
+		if (used == 0)
+			return;
+		long[] oldKeys = keys;
+		int[] oldAxes = axes, oldStamps = stamps;
+		if (spareKeys.length != oldKeys.length) {
+			spareKeys = new long[oldKeys.length];
+			spareAxes = new int[oldKeys.length];
+			spareStamps = new int[oldKeys.length];
+		} else {
+			Arrays.fill(spareStamps, 0);
+		}
+		keys = spareKeys;
+		axes = spareAxes;
+		stamps = spareStamps;
+		spareKeys = oldKeys;
+		spareAxes = oldAxes;
+		spareStamps = oldStamps;
+		used = 0;
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] == 0 || oldAxes[i] == -1)
+				continue;
+			int a = (int) (oldKeys[i] >>> 32), b = (int) oldKeys[i];
+			if (a == removed || b == removed)
+				continue;
+			if (a == moved)
+				a = removed;
+			if (b == moved)
+				b = removed;
+			long key = key(a, b);
+			int slot = hash(key) & mask;
+			while (stamps[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			axes[slot] = oldAxes[i];
+			stamps[slot] = oldStamps[i];
+			used++;
+		}
+	}
+
+	/**
+	 * Rebuilds the table with only the pairs from this tick and the last, growing it if those still fill it up.
+	 */
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldAxes = axes, oldStamps = stamps;
+		int kept = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] >= tick - 1 && oldAxes[i] != -1)
+				kept++;
+		}
+		int capacity = 16;
+		while (capacity < kept * 4)
+			capacity *= 2;
+		keys = new long[capacity];
+		axes = new int[capacity];
+		stamps = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] >= tick - 1 && oldAxes[i] != -1) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (stamps[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				axes[slot] = oldAxes[i];
+				stamps[slot] = oldStamps[i];
+			}
+		}
+		used = kept;
+	}
+
+	// not symmetric, since the axes of (a, b) are numbered differently from those of (b, a)
+	private static long key(int a, int b) {
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
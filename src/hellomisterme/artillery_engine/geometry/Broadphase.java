@@ -0,0 +1,26 @@
+package hellomisterme.artillery_engine.geometry;
+
+/**
+ * A Broadphase quickly finds which boxes might be touching, so that the exact (and more expensive) collision check only
+ * has to be done for those pairs instead of for every pair.
+ *
+ * Boxes are given as parallel arrays of their edges, with the same meaning as in AABB (top is the smaller y). A box with
+ * its left edge at positive infinity is empty and overlaps nothing, which lets the caller keep a box's index while it
+ * is switched off.
+ *
+ * Each box can also have a category and a mask, as bits. Two boxes can only pair up if each one's category shares a bit
+ * with the other's mask, and pairs that can't are left out before their boxes are even compared, so layers that ignore
+ * each other (like shells and other shells) cost next to nothing.
+ */
+public interface Broadphase {
+
+	/**
+	 * Finds every pair of overlapping boxes among the first count boxes that may collide. pairs is cleared first, then
+	 * each pair is added to it once, with the smaller index first.
+	 *
+	 * @param categories the category bits of each box, or null if every pair may collide
+	 * @param masks the mask bits of each box, or null if every pair may collide
+	 */
+	public void findPairs(int count, double[] left, double[] top, double[] right, double[] bottom, int[] categories, int[] masks,
+			PairList pairs);
+}
@@ -59,6 +59,42 @@ public class Circle extends IngameComponent implements Hitbox, Renderable {
 		return distance < totalRadius * totalRadius;
 	}
 	
+	@Override
+	public CollisionResult getCollisionResult(Polygon other) {
+		CollisionResult result = other.getCollisionResult(this);
+		// the correction was for the polygon
+		result.correction.mul(-1);
+		return result;
+	}
+
+	@Override
+	public boolean collides(Polygon other) {
+		return other.collides(this);
+	}
+	
+	/**
+	 * Finds when two moving circles first touch. The positions and motion are relative: the circles start at offset
+	 * (startX, startY) from each other and the offset changes by (moveX, moveY) over the time from 0 to 1.
+	 * 
+	 * @param radius the sum of the radii
+	 * @return the time of impact between 0 and 1, 0 if they overlap at the start, or -1 if they don't touch
+	 */
+	public static double timeOfImpact(double startX, double startY, double moveX, double moveY, double radius) {
+		double c = startX * startX + startY * startY - radius * radius;
+		if (c < 0)
+			return 0;
+		// solve |start + t * move| = radius for the first t
+		double a = moveX * moveX + moveY * moveY;
+		if (a == 0)
+			return -1;
+		double b = 2 * (startX * moveX + startY * moveY);
+		double discriminant = b * b - 4 * a * c;
+		if (discriminant < 0)
+			return -1;
+		double t = (-b - Math.sqrt(discriminant)) / (2 * a);
+		return t >= 0 && t <= 1 ? t : -1;
+	}
+
 	@Override
 	public AABB getAABB() {
 		double diameter = radius * 2;
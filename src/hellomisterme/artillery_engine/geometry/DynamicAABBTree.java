@@ -0,0 +1,581 @@
+package hellomisterme.artillery_engine.geometry;
+
+import java.util.Arrays;
+
+/**
+ * DynamicAABBTree is a bounding volume hierarchy: a binary tree of boxes where every node's box contains its children's.
+ * Unlike a grid, it doesn't care how different the sizes of things are, so a planet and a pebble cost about the same.
+ *
+ * Every object is a leaf, called a proxy, with some user data attached (like an index). Leaves are fattened by a margin
+ * so that an object that moves a little stays inside its leaf and the tree doesn't have to change. When it does leave
+ * its fat box, the leaf is taken out and inserted again where it adds the least perimeter. The tree is kept balanced
+ * with rotations on the way up, like an AVL tree.
+ *
+ * Queries find the leaves whose fat boxes overlap a box, contain a point or are hit by a ray. They are reported through
+ * a callback, which should do the exact check itself. Don't change the tree or start another query from a callback.
+ *
+ * As a Broadphase, the tree keeps one proxy for each box index and moves it every call, then finds the pairs by
+ * walking the tree against itself. Every node also knows all the categories and masks of the leaves under it, so the
+ * walk skips any two branches that can't collide with each other without looking at their leaves.
+ *
+ * The node boxes are kept in one array, four doubles per node in the same order as the AABB constructor (left, right,
+ * top, bottom), because queries spend most of their time reading them.
+ */
+public class DynamicAABBTree implements Broadphase {
+
+	/** Called for each leaf found by a query */
+	public interface QueryCallback {
+		/** @return false to stop the query */
+		public boolean found(int proxy);
+	}
+
+	/** Called for each leaf hit by a ray */
+	public interface RayCallback {
+		/**
+		 * @param maxFraction how far along the ray the query goes, from 0 (the start) to 1 (the end)
+		 * @return the new maxFraction. Return maxFraction to carry on, something smaller to cut the ray short (like
+		 * the fraction of a hit, to only find closer ones), or 0 to stop.
+		 */
+		public double hit(int proxy, double maxFraction);
+	}
+
+	private static final int NULL = -1;
+	private static final int LEFT = 0, RIGHT = 1, TOP = 2, BOTTOM = 3;
+
+	/** Leaves are fattened by this on every side */
+	public double margin = 1;
+	/** ...plus this fraction of their size, so that big things get a bigger margin */
+	public double marginFraction = 0.1;
+
+	private double[] bounds = new double[0];
+	private int[] parent = new int[0], child1 = new int[0], child2 = new int[0], height = new int[0], data = new int[0];
+	// the categories and masks of all the leaves under each node, or'ed together
+	private int[] categories = new int[0], masks = new int[0];
+	private int root = NULL;
+	private int freeList = NULL;
+
+	private int[] stack = new int[64];
+
+	// for findPairs()
+	private int[] proxyOf = new int[0];
+	private int boxCount = 0;
+
+	/**
+	 * Adds a leaf for an object with the given bounds.
+	 *
+	 * @param data anything the caller wants to find the object by, see getData()
+	 * @return the proxy of the leaf
+	 */
+	public int createProxy(double left, double top, double right, double bottom, int data) {
+		int proxy = allocateNode();
+		fatten(proxy, left, top, right, bottom);
+		this.data[proxy] = data;
+		insertLeaf(proxy);
+		return proxy;
+	}
+
+	public int createProxy(AABB box, int data) {
+		return createProxy(box.left, box.top, box.right, box.bottom, data);
+	}
+
+	public void destroyProxy(int proxy) {
+		removeLeaf(proxy);
+		freeNode(proxy);
+	}
+
+	/**
+	 * Updates the bounds of an object. Nothing changes if they are still inside the fat box of its leaf.
+	 *
+	 * @return true if the leaf had to be moved
+	 */
+	public boolean moveProxy(int proxy, double left, double top, double right, double bottom) {
+		int b = proxy * 4;
+		if (bounds[b + LEFT] <= left && bounds[b + RIGHT] >= right && bounds[b + TOP] <= top && bounds[b + BOTTOM] >= bottom)
+			return false;
+		removeLeaf(proxy);
+		fatten(proxy, left, top, right, bottom);
+		insertLeaf(proxy);
+		return true;
+	}
+
+	public boolean moveProxy(int proxy, AABB box) {
+		return moveProxy(proxy, box.left, box.top, box.right, box.bottom);
+	}
+
+	public int getData(int proxy) {
+		return data[proxy];
+	}
+
+	/**
+	 * Sets the category and mask bits of a leaf, for findPairs(). New leaves collide with everything.
+	 */
+	public void setFilter(int proxy, int category, int mask) {
+		if (categories[proxy] == category && masks[proxy] == mask)
+			return;
+		categories[proxy] = category;
+		masks[proxy] = mask;
+		for (int node = parent[proxy]; node != NULL; node = parent[node]) {
+			categories[node] = categories[child1[node]] | categories[child2[node]];
+			masks[node] = masks[child1[node]] | masks[child2[node]];
+		}
+	}
+
+	/**
+	 * Copies the fat box of a leaf into result.
+	 *
+	 * @return result
+	 */
+	public AABB getFatAABB(int proxy, AABB result) {
+		int b = proxy * 4;
+		result.set(bounds[b + LEFT], bounds[b + RIGHT], bounds[b + TOP], bounds[b + BOTTOM]);
+		return result;
+	}
+
+	/** @return the height of the tree, 0 for a single leaf */
+	public int getHeight() {
+		return root == NULL ? 0 : height[root];
+	}
+
+	/**
+	 * Finds the leaves whose fat boxes overlap the given box.
+	 */
+	public void query(double left, double top, double right, double bottom, QueryCallback callback) {
+		if (root == NULL)
+			return;
+		double[] bounds = this.bounds;
+		int sp = 0;
+		stack[sp++] = root;
+		while (sp > 0) {
+			int node = stack[--sp];
+			int b = node * 4;
+			if (bounds[b + RIGHT] > left && bounds[b + LEFT] < right && bounds[b + TOP] < bottom && bounds[b + BOTTOM] > top) {
+				if (child1[node] == NULL) {
+					if (!callback.found(node))
+						return;
+				} else {
+					push(sp);
+					stack[sp++] = child1[node];
+					stack[sp++] = child2[node];
+				}
+			}
+		}
+	}
+
+	public void query(AABB box, QueryCallback callback) {
+		query(box.left, box.top, box.right, box.bottom, callback);
+	}
+
+	/**
+	 * Finds the leaves whose fat boxes contain the given point.
+	 */
+	public void queryPoint(double x, double y, QueryCallback callback) {
+		if (root == NULL)
+			return;
+		double[] bounds = this.bounds;
+		int sp = 0;
+		stack[sp++] = root;
+		while (sp > 0) {
+			int node = stack[--sp];
+			int b = node * 4;
+			if (x >= bounds[b + LEFT] && x <= bounds[b + RIGHT] && y >= bounds[b + TOP] && y <= bounds[b + BOTTOM]) {
+				if (child1[node] == NULL) {
+					if (!callback.found(node))
+						return;
+				} else {
+					push(sp);
+					stack[sp++] = child1[node];
+					stack[sp++] = child2[node];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the leaves whose fat boxes are crossed by the ray from (x1, y1) to (x2, y2).
+	 */
+	public void raycast(double x1, double y1, double x2, double y2, RayCallback callback) {
+		raycast(x1, y1, x2, y2, 0, callback);
+	}
+
+	/**
+	 * Finds the leaves whose fat boxes could be hit by a circle of the given radius moving from (x1, y1) to (x2, y2),
+	 * which are the ones crossed by the ray once they are grown by the radius.
+	 */
+	public void raycast(double x1, double y1, double x2, double y2, double radius, RayCallback callback) {
+		if (root == NULL)
+			return;
+		double dx = x2 - x1, dy = y2 - y1;
+		double maxFraction = 1;
+		int sp = 0;
+		stack[sp++] = root;
+		while (sp > 0) {
+			int node = stack[--sp];
+			if (!rayHitsBox(node * 4, x1, y1, dx, dy, radius, maxFraction))
+				continue;
+			if (child1[node] == NULL) {
+				double value = callback.hit(node, maxFraction);
+				if (value <= 0)
+					return;
+				maxFraction = Math.min(maxFraction, value);
+			} else {
+				push(sp);
+				stack[sp++] = child1[node];
+				stack[sp++] = child2[node];
+			}
+		}
+	}
+
+	/**
+	 * Slab test: does the part of the ray from 0 to maxFraction cross the box starting at the given index in bounds,
+	 * grown by radius on every side?
+	 */
+	private boolean rayHitsBox(int b, double x, double y, double dx, double dy, double radius, double maxFraction) {
+		double left = bounds[b + LEFT] - radius, right = bounds[b + RIGHT] + radius;
+		double top = bounds[b + TOP] - radius, bottom = bounds[b + BOTTOM] + radius;
+		double tMin = 0, tMax = maxFraction;
+		if (dx == 0) {
+			if (x < left || x > right)
+				return false;
+		} else {
+			double inv = 1 / dx;
+			double t1 = (left - x) * inv, t2 = (right - x) * inv;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		}
+		if (dy == 0) {
+			if (y < top || y > bottom)
+				return false;
+		} else {
+			double inv = 1 / dy;
+			double t1 = (top - y) * inv, t2 = (bottom - y) * inv;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		}
+		return tMin <= tMax;
+	}
+
+	@Override
+	public void findPairs(int count, double[] left, double[] top, double[] right, double[] bottom, int[] categories, int[] masks,
+			PairList pairs) {
+		pairs.clear();
+		update(count, left, top, right, bottom, categories, masks);
+		if (root == NULL)
+			return;
+
+		// walk the tree against itself. The stack holds pairs of nodes, a node paired with itself means the pairs inside it.
+		double[] bounds = this.bounds;
+		int[] nodeCategories = this.categories, nodeMasks = this.masks;
+		int sp = 0;
+		stack[sp++] = root;
+		stack[sp++] = root;
+		while (sp > 0) {
+			int b = stack[--sp];
+			int a = stack[--sp];
+			// nothing under a collides with anything under b
+			if ((nodeCategories[a] & nodeMasks[b]) == 0 || (nodeCategories[b] & nodeMasks[a]) == 0)
+				continue;
+			if (a == b) {
+				if (child1[a] != NULL) {
+					push(sp + 4);
+					stack[sp++] = child1[a];
+					stack[sp++] = child2[a];
+					stack[sp++] = child1[a];
+					stack[sp++] = child1[a];
+					stack[sp++] = child2[a];
+					stack[sp++] = child2[a];
+				}
+				continue;
+			}
+			int ba = a * 4, bb = b * 4;
+			if (!(bounds[ba + RIGHT] > bounds[bb + LEFT] && bounds[ba + LEFT] < bounds[bb + RIGHT]
+					&& bounds[ba + TOP] < bounds[bb + BOTTOM] && bounds[ba + BOTTOM] > bounds[bb + TOP]))
+				continue;
+			boolean aLeaf = child1[a] == NULL, bLeaf = child1[b] == NULL;
+			if (aLeaf && bLeaf) {
+				// the fat boxes overlap, check the real ones
+				int i = data[a], j = data[b];
+				if (right[i] > left[j] && left[i] < right[j] && top[i] < bottom[j] && bottom[i] > top[j])
+					pairs.add(Math.min(i, j), Math.max(i, j));
+			} else {
+				push(sp + 2);
+				// split the bigger node
+				if (bLeaf || (!aLeaf && height[a] >= height[b])) {
+					stack[sp++] = child1[a];
+					stack[sp++] = b;
+					stack[sp++] = child2[a];
+					stack[sp++] = b;
+				} else {
+					stack[sp++] = a;
+					stack[sp++] = child1[b];
+					stack[sp++] = a;
+					stack[sp++] = child2[b];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the proxies findPairs() keeps for each index to the given boxes, without looking for pairs. The data of each
+	 * of those proxies is its index, so queries can use them too.
+	 */
+	public void update(int count, double[] left, double[] top, double[] right, double[] bottom, int[] categories,
+			int[] masks) {
+		if (proxyOf.length < count) {
+			int old = proxyOf.length;
+			proxyOf = Arrays.copyOf(proxyOf, Math.max(count, old * 2));
+			Arrays.fill(proxyOf, old, proxyOf.length, NULL);
+		}
+		for (int i = count; i < boxCount; i++) {
+			if (proxyOf[i] != NULL) {
+				destroyProxy(proxyOf[i]);
+				proxyOf[i] = NULL;
+			}
+		}
+		boxCount = count;
+
+		for (int i = 0; i < count; i++) {
+			boolean empty = left[i] == Double.POSITIVE_INFINITY;
+			if (proxyOf[i] == NULL) {
+				if (!empty)
+					proxyOf[i] = createProxy(left[i], top[i], right[i], bottom[i], i);
+			} else if (empty) {
+				destroyProxy(proxyOf[i]);
+				proxyOf[i] = NULL;
+			} else {
+				moveProxy(proxyOf[i], left[i], top[i], right[i], bottom[i]);
+			}
+			if (proxyOf[i] != NULL)
+				setFilter(proxyOf[i], categories == null ? -1 : categories[i], masks == null ? -1 : masks[i]);
+		}
+	}
+
+	/**
+	 * Makes sure the stack has room for two more entries after the first sp.
+	 */
+	private void push(int sp) {
+		if (sp + 2 > stack.length)
+			stack = Arrays.copyOf(stack, stack.length * 2);
+	}
+
+	private void fatten(int node, double left, double top, double right, double bottom) {
+		double mx = margin + (right - left) * marginFraction;
+		double my = margin + (bottom - top) * marginFraction;
+		setBounds(node, left - mx, right + mx, top - my, bottom + my);
+	}
+
+	private void setBounds(int node, double left, double right, double top, double bottom) {
+		int b = node * 4;
+		bounds[b + LEFT] = left;
+		bounds[b + RIGHT] = right;
+		bounds[b + TOP] = top;
+		bounds[b + BOTTOM] = bottom;
+	}
+
+	/**
+	 * Sets the box of a node to the box around the boxes of two other nodes, and its filter to both of theirs.
+	 */
+	private void setUnion(int node, int a, int b) {
+		categories[node] = categories[a] | categories[b];
+		masks[node] = masks[a] | masks[b];
+		a *= 4;
+		b *= 4;
+		setBounds(node, Math.min(bounds[a + LEFT], bounds[b + LEFT]), Math.max(bounds[a + RIGHT], bounds[b + RIGHT]),
+				Math.min(bounds[a + TOP], bounds[b + TOP]), Math.max(bounds[a + BOTTOM], bounds[b + BOTTOM]));
+	}
+
+	private double perimeter(int node) {
+		int b = node * 4;
+		return 2 * (bounds[b + RIGHT] - bounds[b + LEFT] + bounds[b + BOTTOM] - bounds[b + TOP]);
+	}
+
+	/** @return the perimeter of the box around the boxes of two nodes */
+	private double unionPerimeter(int a, int b) {
+		a *= 4;
+		b *= 4;
+		double width = Math.max(bounds[a + RIGHT], bounds[b + RIGHT]) - Math.min(bounds[a + LEFT], bounds[b + LEFT]);
+		double height = Math.max(bounds[a + BOTTOM], bounds[b + BOTTOM]) - Math.min(bounds[a + TOP], bounds[b + TOP]);
+		return 2 * (width + height);
+	}
+
+	private int allocateNode() {
+		if (freeList == NULL) {
+			int old = parent.length;
+			int size = Math.max(16, old * 2);
+			bounds = Arrays.copyOf(bounds, size * 4);
+			parent = Arrays.copyOf(parent, size);
+			child1 = Arrays.copyOf(child1, size);
+			child2 = Arrays.copyOf(child2, size);
+			height = Arrays.copyOf(height, size);
+			data = Arrays.copyOf(data, size);
+			categories = Arrays.copyOf(categories, size);
+			masks = Arrays.copyOf(masks, size);
+			// link the new nodes into the free list, through parent
+			for (int i = old; i < size; i++) {
+				parent[i] = i + 1 < size ? i + 1 : NULL;
+				height[i] = -1;
+			}
+			freeList = old;
+		}
+		int node = freeList;
+		freeList = parent[node];
+		parent[node] = NULL;
+		child1[node] = NULL;
+		child2[node] = NULL;
+		height[node] = 0;
+		data[node] = -1;
+		categories[node] = -1;
+		masks[node] = -1;
+		return node;
+	}
+
+	private void freeNode(int node) {
+		parent[node] = freeList;
+		height[node] = -1;
+		freeList = node;
+	}
+
+	private void insertLeaf(int leaf) {
+		if (root == NULL) {
+			root = leaf;
+			parent[leaf] = NULL;
+			return;
+		}
+
+		// find the best sibling, going down where the leaf adds the least perimeter
+		int index = root;
+		while (child1[index] != NULL) {
+			int c1 = child1[index], c2 = child2[index];
+			double area = perimeter(index);
+			double combinedArea = unionPerimeter(index, leaf);
+			// the cost of making a new parent for this node and the leaf
+			double cost = 2 * combinedArea;
+			// the minimum cost of pushing the leaf further down the tree
+			double inheritanceCost = 2 * (combinedArea - area);
+			double cost1 = descendCost(c1, leaf) + inheritanceCost;
+			double cost2 = descendCost(c2, leaf) + inheritanceCost;
+			if (cost < cost1 && cost < cost2)
+				break;
+			index = cost1 < cost2 ? c1 : c2;
+		}
+		int sibling = index;
+
+		// make a new parent for the leaf and its sibling
+		int oldParent = parent[sibling];
+		int newParent = allocateNode();
+		parent[newParent] = oldParent;
+		setUnion(newParent, leaf, sibling);
+		height[newParent] = height[sibling] + 1;
+		if (oldParent != NULL) {
+			if (child1[oldParent] == sibling)
+				child1[oldParent] = newParent;
+			else
+				child2[oldParent] = newParent;
+		} else {
+			root = newParent;
+		}
+		child1[newParent] = sibling;
+		child2[newParent] = leaf;
+		parent[sibling] = newParent;
+		parent[leaf] = newParent;
+
+		fixUpwards(parent[leaf]);
+	}
+
+	private double descendCost(int node, int leaf) {
+		if (child1[node] == NULL)
+			return unionPerimeter(node, leaf);
+		return unionPerimeter(node, leaf) - perimeter(node);
+	}
+
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULL;
+			return;
+		}
+		int p = parent[leaf];
+		int grandParent = parent[p];
+		int sibling = child1[p] == leaf ? child2[p] : child1[p];
+		if (grandParent != NULL) {
+			// the sibling takes the parent's place
+			if (child1[grandParent] == p)
+				child1[grandParent] = sibling;
+			else
+				child2[grandParent] = sibling;
+			parent[sibling] = grandParent;
+			freeNode(p);
+			fixUpwards(grandParent);
+		} else {
+			root = sibling;
+			parent[sibling] = NULL;
+			freeNode(p);
+		}
+	}
+
+	/**
+	 * Balances the nodes from the given one up to the root, and refits their boxes and heights.
+	 */
+	private void fixUpwards(int index) {
+		while (index != NULL) {
+			index = balance(index);
+			int c1 = child1[index], c2 = child2[index];
+			height[index] = 1 + Math.max(height[c1], height[c2]);
+			setUnion(index, c1, c2);
+			index = parent[index];
+		}
+	}
+
+	/**
+	 * Rotates the taller child of a node up if its children's heights differ by more than one.
+	 *
+	 * @return the node now in the place of the given one
+	 */
+	private int balance(int a) {
+		if (child1[a] == NULL || height[a] < 2)
+			return a;
+		int b = child1[a], c = child2[a];
+		int difference = height[c] - height[b];
+		if (difference > 1)
+			return rotate(a, c, b, false);
+		if (difference < -1)
+			return rotate(a, b, c, true);
+		return a;
+	}
+
+	/**
+	 * Rotates the child up into a's place. a keeps the other child and takes the shorter of up's children, up keeps the
+	 * taller one.
+	 *
+	 * @param upIsFirst if up is a's child1
+	 * @return up
+	 */
+	private int rotate(int a, int up, int other, boolean upIsFirst) {
+		int f = child1[up], g = child2[up];
+
+		// up takes a's place
+		child1[up] = a;
+		parent[up] = parent[a];
+		parent[a] = up;
+		if (parent[up] != NULL) {
+			if (child1[parent[up]] == a)
+				child1[parent[up]] = up;
+			else
+				child2[parent[up]] = up;
+		} else {
+			root = up;
+		}
+
+		int taller = height[f] > height[g] ? f : g;
+		int shorter = taller == f ? g : f;
+		child2[up] = taller;
+		if (upIsFirst)
+			child1[a] = shorter;
+		else
+			child2[a] = shorter;
+		parent[shorter] = a;
+		setUnion(a, other, shorter);
+		setUnion(up, a, taller);
+		height[a] = 1 + Math.max(height[other], height[shorter]);
+		height[up] = 1 + Math.max(height[a], height[taller]);
+		return up;
+	}
+}
@@ -8,5 +8,9 @@ public interface Hitbox {
 	
 	public boolean collides(Circle other);
 
+	public CollisionResult getCollisionResult(Polygon other);
+
+	public boolean collides(Polygon other);
+
 	public AABB getAABB();
 }
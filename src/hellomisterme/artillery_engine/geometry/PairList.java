@@ -0,0 +1,39 @@
+package hellomisterme.artillery_engine.geometry;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of pairs of ints, like the indices of two overlapping boxes. It keeps its arrays between uses, so
+ * filling it every tick doesn't create any objects.
+ */
+public class PairList {
+
+	private int[] a = new int[64], b = new int[64];
+	private int count = 0;
+
+	public void add(int first, int second) {
+		if (count == a.length) {
+			a = Arrays.copyOf(a, count * 2);
+			b = Arrays.copyOf(b, count * 2);
+		}
+		a[count] = first;
+		b[count] = second;
+		count++;
+	}
+
+	public int first(int pair) {
+		return a[pair];
+	}
+
+	public int second(int pair) {
+		return b[pair];
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+}
@@ -1,46 +1,356 @@
 package hellomisterme.artillery_engine.geometry;
 
-import hellomisterme.artillery_engine.util.MathUtils;
+import hellomisterme.artillery_engine.components.IngameComponent;
+import hellomisterme.artillery_engine.components.physics.CollisionResult;
+import hellomisterme.artillery_engine.rendering.Render;
+import hellomisterme.artillery_engine.rendering.Renderable;
 import hellomisterme.artillery_engine.util.Vector;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 
-public class Polygon {
-	
+/**
+ * A convex polygon hitbox. The points are relative to the polygon's position, and turn with the entity. They can go
+ * around either way, but the polygon has to be convex, since collisions are found with the separating axis theorem:
+ * two convex shapes don't overlap exactly when one of their edges has all of the other shape on its outside.
+ *
+ * The tests take the axis that separated a pair last time as a hint. Things that are apart usually stay apart, so for
+ * most pairs checking that one axis is enough.
+ */
+public class Polygon extends IngameComponent implements Hitbox, Renderable {
+
+	public static Color renderingColor = Color.CYAN;
+
 	private Vector[] points;
 	private Vector center;
-	
+
+	// the points and the outward edge normals where the polygon is now, edge k going from point k to point k + 1
+	private double[] worldX, worldY, normalX, normalY;
+	private double left, top, right, bottom;
+
 	public Polygon(Vector[] points) {
+		if (points.length < 3)
+			throw new IllegalArgumentException("a polygon needs at least 3 points");
 		this.points = points;
+		worldX = new double[points.length];
+		worldY = new double[points.length];
+		normalX = new double[points.length];
+		normalY = new double[points.length];
 		calculateCenter();
 	}
-	
+
 	protected void calculateCenter() {
-		// separate the polygon into triangles, calculate each triangle'poly area and center,
+		// separate the polygon into triangles, calculate each triangle's area and center,
 		// then average the centers using area as a weight
-		int numTriangles = points.length - 2;
-		double[] triangleAreas = new double[numTriangles];
-		double[] triangleCentersX = new double[numTriangles];
-		double[] triangleCentersY = new double[numTriangles];
-		for (int i = 0; i < numTriangles; i++) {
-			// get the triangle'poly a and b points, points[0] will be c
-			Vector a = points[i + 1];
-			Vector b = points[i + 2];
-			triangleCentersX[i] = (points[0].x + a.x + b.x) / 3;
-			triangleCentersY[i] = (points[0].y + a.y + b.y) / 3;
-			a.sub(points[0]);
-			b.sub(points[0]);
+		double x0 = points[0].x, y0 = points[0].y;
+		double totalArea = 0, centerX = 0, centerY = 0;
+		for (int i = 1; i < points.length - 1; i++) {
+			// the triangle is points[0], a and b
+			double ax = points[i].x - x0, ay = points[i].y - y0;
+			double bx = points[i + 1].x - x0, by = points[i + 1].y - y0;
 			// This isn't the actual area of the triangle since it isn't divided by 2, but it still works the same as a weight
-			triangleAreas[i] = Math.sin(a.angle() - b.angle()) * a.magnitude() * b.magnitude();
+			double area = ax * by - ay * bx;
+			centerX += (ax + bx) / 3 * area;
+			centerY += (ay + by) / 3 * area;
+			totalArea += area;
 		}
-		// calculating weighted average of all the triangle centers
-		center = new Vector(MathUtils.WeightedAverage(triangleCentersX, triangleAreas), MathUtils.WeightedAverage(triangleCentersY, triangleAreas));
+		center = new Vector(x0 + centerX / totalArea, y0 + centerY / totalArea);
 	}
-	
+
 	public Vector getCenter() {
 		return center.clone();
 	}
-	
+
+	public int getVertexCount() {
+		return points.length;
+	}
+
+	/**
+	 * Moves the vertices to where the polygon is now. The tests use the vertices from the last time this was called.
+	 */
+	private void transformVertices() {
+		double x = transform.position.x, y = transform.position.y, rotation = transform.rotation;
+		if (entity != null) {
+			x += entity.transform.position.x;
+			y += entity.transform.position.y;
+			rotation += entity.transform.rotation;
+		}
+		double cos = Math.cos(rotation), sin = Math.sin(rotation);
+		int n = points.length;
+		left = top = Double.POSITIVE_INFINITY;
+		right = bottom = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			Vector p = points[i];
+			double px = x + p.x * cos - p.y * sin;
+			double py = y + p.x * sin + p.y * cos;
+			worldX[i] = px;
+			worldY[i] = py;
+			left = Math.min(left, px);
+			right = Math.max(right, px);
+			top = Math.min(top, py);
+			bottom = Math.max(bottom, py);
+		}
+
+		// which way the points go decides which side of the edges is outside
+		double winding = 0;
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			winding += worldX[i] * worldY[j] - worldY[i] * worldX[j];
+		}
+		double sign = winding < 0 ? -1 : 1;
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			double edgeX = worldX[j] - worldX[i], edgeY = worldY[j] - worldY[i];
+			double length = Math.sqrt(edgeX * edgeX + edgeY * edgeY);
+			if (length == 0)
+				length = 1; // repeated point, the edge can't separate anything
+			normalX[i] = sign * edgeY / length;
+			normalY[i] = -sign * edgeX / length;
+		}
+	}
+
+	/**
+	 * Moves the vertices to where the polygon is now, and puts its bounding box into result. Doesn't create any objects.
+	 */
+	public void getAABB(AABB result) {
+		transformVertices();
+		result.set(left, right, top, bottom);
+	}
+
+	@Override
+	public AABB getAABB() {
+		AABB result = new AABB();
+		getAABB(result);
+		return result;
+	}
+
+	/**
+	 * @return how far b is outside of a's edge k, negative if they overlap along it
+	 */
+	private static double edgeSeparation(Polygon a, int k, Polygon b) {
+		double nx = a.normalX[k], ny = a.normalY[k], x = a.worldX[k], y = a.worldY[k];
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < b.points.length; i++)
+			min = Math.min(min, (b.worldX[i] - x) * nx + (b.worldY[i] - y) * ny);
+		return min;
+	}
+
+	/**
+	 * Tests two polygons, as they were the last time their vertices were moved. The axes are numbered with a's edges
+	 * first, then b's.
+	 *
+	 * @param hint the axis that separated them last time, or -1
+	 * @param result gets the unit normal from a to b and the depth of the overlap, in that order, if they overlap
+	 * @return an axis that separates them, or -1 if they overlap
+	 */
+	public static int test(Polygon a, Polygon b, int hint, double[] result) {
+		int na = a.points.length, nb = b.points.length;
+		if (hint >= 0 && hint < na + nb) {
+			double s = hint < na ? edgeSeparation(a, hint, b) : edgeSeparation(b, hint - na, a);
+			if (s >= 0)
+				return hint;
+		}
+
+		// the axis they overlap along the least is the way to push them apart
+		double best = Double.NEGATIVE_INFINITY;
+		int bestAxis = 0;
+		for (int k = 0; k < na; k++) {
+			double s = edgeSeparation(a, k, b);
+			if (s >= 0)
+				return k;
+			if (s > best) {
+				best = s;
+				bestAxis = k;
+			}
+		}
+		for (int k = 0; k < nb; k++) {
+			double s = edgeSeparation(b, k, a);
+			if (s >= 0)
+				return na + k;
+			if (s > best) {
+				best = s;
+				bestAxis = na + k;
+			}
+		}
+		if (bestAxis < na) {
+			result[0] = a.normalX[bestAxis];
+			result[1] = a.normalY[bestAxis];
+		} else {
+			// b's normals point away from b, towards a
+			result[0] = -b.normalX[bestAxis - na];
+			result[1] = -b.normalY[bestAxis - na];
+		}
+		result[2] = -best;
+		return -1;
+	}
+
+	/**
+	 * Tests a polygon against a circle, with the polygon as it was the last time its vertices were moved. The axes are
+	 * the polygon's edges.
+	 *
+	 * @param hint the axis that separated them last time, or -1
+	 * @param result gets the unit normal from the polygon to the circle and the depth of the overlap, in that order, if
+	 * they overlap
+	 * @return an axis that separates them, or -1 if they overlap
+	 */
+	public static int test(Polygon a, double x, double y, double radius, int hint, double[] result) {
+		int n = a.points.length;
+		if (hint >= 0 && hint < n && (x - a.worldX[hint]) * a.normalX[hint] + (y - a.worldY[hint]) * a.normalY[hint] >= radius)
+			return hint;
+
+		// the edge the center is furthest outside of
+		double best = Double.NEGATIVE_INFINITY;
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			double s = (x - a.worldX[i]) * a.normalX[i] + (y - a.worldY[i]) * a.normalY[i];
+			if (s >= radius)
+				return i;
+			if (s > best) {
+				best = s;
+				k = i;
+			}
+		}
+
+		if (best > 0) {
+			// outside, so the closest part might be one of the edge's corners instead of the edge itself
+			int j = k + 1 == n ? 0 : k + 1;
+			double x1 = a.worldX[k], y1 = a.worldY[k], x2 = a.worldX[j], y2 = a.worldY[j];
+			double cornerX = Double.NaN, cornerY = 0;
+			if ((x - x1) * (x2 - x1) + (y - y1) * (y2 - y1) <= 0) {
+				cornerX = x1;
+				cornerY = y1;
+			} else if ((x - x2) * (x1 - x2) + (y - y2) * (y1 - y2) <= 0) {
+				cornerX = x2;
+				cornerY = y2;
+			}
+			if (cornerX == cornerX) { // not NaN
+				double dx = x - cornerX, dy = y - cornerY;
+				double distance = Math.sqrt(dx * dx + dy * dy);
+				if (distance >= radius)
+					return k;
+				result[0] = dx / distance;
+				result[1] = dy / distance;
+				result[2] = radius - distance;
+				return -1;
+			}
+		}
+		result[0] = a.normalX[k];
+		result[1] = a.normalY[k];
+		result[2] = radius - best;
+		return -1;
+	}
+
+	/**
+	 * Finds when a circle moving from (x, y) by (moveX, moveY) first touches a polygon, as it was the last time its
+	 * vertices were moved. With a radius of 0 this is a raycast.
+	 *
+	 * @param result gets the normal of the polygon where it is hit, in the first two places
+	 * @return the time of impact between 0 and 1, 0 if they overlap at the start, or -1 if they don't touch
+	 */
+	public static double cast(Polygon a, double x, double y, double moveX, double moveY, double radius, double[] result) {
+		int n = a.points.length;
+		if (radius == 0) {
+			// clip the ray by every edge, the last edge it goes in through is the one that is hit
+			double enter = 0, exit = 1;
+			int hit = -1;
+			for (int k = 0; k < n; k++) {
+				double nx = a.normalX[k], ny = a.normalY[k];
+				double distance = (a.worldX[k] - x) * nx + (a.worldY[k] - y) * ny;
+				double speed = moveX * nx + moveY * ny;
+				if (speed == 0) {
+					if (distance < 0)
+						return -1; // parallel to the edge, on the outside
+				} else {
+					double t = distance / speed;
+					if (speed < 0 && t > enter) {
+						enter = t;
+						hit = k;
+					} else if (speed > 0) {
+						exit = Math.min(exit, t);
+					}
+				}
+				if (enter > exit)
+					return -1;
+			}
+			if (hit == -1) {
+				// starts inside
+				double length = Math.sqrt(moveX * moveX + moveY * moveY);
+				result[0] = length == 0 ? 1 : -moveX / length;
+				result[1] = length == 0 ? 0 : -moveY / length;
+				return 0;
+			}
+			result[0] = a.normalX[hit];
+			result[1] = a.normalY[hit];
+			return enter;
+		}
+
+		if (test(a, x, y, radius, -1, result) == -1)
+			return 0;
+		// the polygon grown by the radius has its edges pushed out by the radius and rounded corners
+		double best = -1;
+		for (int k = 0; k < n; k++) {
+			double nx = a.normalX[k], ny = a.normalY[k];
+			double speed = moveX * nx + moveY * ny;
+			if (speed < 0) {
+				double t = (radius - ((x - a.worldX[k]) * nx + (y - a.worldY[k]) * ny)) / speed;
+				if (t >= 0 && t <= 1 && (best == -1 || t < best)) {
+					// only if it hits the edge between its corners
+					int j = k + 1 == n ? 0 : k + 1;
+					double edgeX = a.worldX[j] - a.worldX[k], edgeY = a.worldY[j] - a.worldY[k];
+					double along = (x + moveX * t - a.worldX[k]) * edgeX + (y + moveY * t - a.worldY[k]) * edgeY;
+					if (along >= 0 && along <= edgeX * edgeX + edgeY * edgeY) {
+						best = t;
+						result[0] = nx;
+						result[1] = ny;
+					}
+				}
+			}
+			double t = Circle.timeOfImpact(x - a.worldX[k], y - a.worldY[k], moveX, moveY, radius);
+			if (t >= 0 && (best == -1 || t < best)) {
+				best = t;
+				result[0] = (x + moveX * t - a.worldX[k]) / radius;
+				result[1] = (y + moveY * t - a.worldY[k]) / radius;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public CollisionResult getCollisionResult(Circle other) {
+		transformVertices();
+		Vector pos = other.globalPosition();
+		CollisionResult result = new CollisionResult();
+		double[] contact = new double[3];
+		if (test(this, pos.x, pos.y, other.getRadius(), -1, contact) == -1) {
+			result.collision = true;
+			result.correction = new Vector(-contact[0] * contact[2], -contact[1] * contact[2]);
+		}
+		return result;
+	}
+
+	@Override
+	public CollisionResult getCollisionResult(Polygon other) {
+		transformVertices();
+		other.transformVertices();
+		CollisionResult result = new CollisionResult();
+		double[] contact = new double[3];
+		if (test(this, other, -1, contact) == -1) {
+			result.collision = true;
+			result.correction = new Vector(-contact[0] * contact[2], -contact[1] * contact[2]);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean collides(Circle other) {
+		return getCollisionResult(other).collision;
+	}
+
+	@Override
+	public boolean collides(Polygon other) {
+		return getCollisionResult(other).collision;
+	}
+
 	public void render(Graphics2D g) {
 		int[] xPoints = new int[points.length];
 		int[] yPoints = new int[points.length];
@@ -50,4 +360,23 @@ public class Polygon {
 		}
 		g.fillPolygon(xPoints, yPoints, points.length);
 	}
+
+	@Override
+	public void render(Render render) {
+		transformVertices();
+		int[] xPoints = new int[points.length];
+		int[] yPoints = new int[points.length];
+		for (int i = 0; i < points.length; i++) {
+			xPoints[i] = (int) Math.round(worldX[i]);
+			yPoints[i] = (int) Math.round(worldY[i]);
+		}
+		Graphics2D g = render.getCameraGraphics();
+		g.setColor(renderingColor);
+		g.drawPolygon(xPoints, yPoints, points.length);
+		g.dispose();
+	}
+
+	@Override
+	public void devmodeRender(Render render) {
+	}
 }
@@ -0,0 +1,238 @@
+package hellomisterme.artillery_engine.geometry;
+
+import java.util.Arrays;
+
+/**
+ * SpatialHash is a Broadphase that puts every box into the cells of a uniform grid that it covers, and only checks boxes
+ * that share a cell. The grid is unbounded, since only the cells that are used are stored, in a hash table.
+ *
+ * The cell size should be about the size of a typical box. If it is 0, it is tuned on every call to the median box size,
+ * so that most boxes cover one to four cells. Boxes that would cover more than maxCellsPerBox cells (like a planet among
+ * pebbles) are kept out of the grid and checked against every other box instead.
+ *
+ * A pair that shares several cells is only reported in the cell that holds the top left corner of the boxes' overlap,
+ * so no pair is found twice.
+ */
+public class SpatialHash implements Broadphase {
+
+	/** The width and height of the cells, or 0 to use the median box size */
+	public double cellSize;
+	/** Boxes covering more cells than this are checked against everything instead of going into the grid */
+	public int maxCellsPerBox = 64;
+
+	private double lastCellSize = 0;
+
+	// open addressing hash table from cell coordinates to the first entry in that cell
+	private long[] keys = new long[0];
+	private int[] heads = new int[0];
+	private int mask, used;
+
+	// entries are linked lists of the boxes in each cell
+	private int[] entryBox = new int[64], entryNext = new int[64];
+	private int entryCount;
+
+	private int[] large = new int[8];
+	private int largeCount;
+	private boolean[] isLarge = new boolean[0];
+	private double[] sizes = new double[0];
+
+	public SpatialHash() {
+		this(0);
+	}
+
+	/**
+	 * @param cellSize the width and height of the cells, or 0 to tune it automatically
+	 */
+	public SpatialHash(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/** @return the cell size used by the last call to findPairs() */
+	public double getCellSize() {
+		return lastCellSize;
+	}
+
+	@Override
+	public void findPairs(int count, double[] left, double[] top, double[] right, double[] bottom, int[] categories, int[] masks,
+			PairList pairs) {
+		pairs.clear();
+		double size = cellSize > 0 ? cellSize : medianSize(count, left, top, right, bottom);
+		if (!(size > 0) || Double.isInfinite(size))
+			size = 1;
+		lastCellSize = size;
+		double inv = 1 / size;
+		reset(count);
+
+		for (int i = 0; i < count; i++) {
+			if (left[i] == Double.POSITIVE_INFINITY)
+				continue; // empty
+			int x0 = cell(left[i], inv), x1 = cell(right[i], inv);
+			int y0 = cell(top[i], inv), y1 = cell(bottom[i], inv);
+			long cells = ((long) x1 - x0 + 1) * ((long) y1 - y0 + 1);
+			if (cells > maxCellsPerBox || cells <= 0) {
+				if (largeCount == large.length)
+					large = Arrays.copyOf(large, largeCount * 2);
+				large[largeCount++] = i;
+				isLarge[i] = true;
+				continue;
+			}
+			for (int cx = x0; cx <= x1; cx++) {
+				for (int cy = y0; cy <= y1; cy++) {
+					int slot = slot(cx, cy);
+					for (int e = heads[slot]; e != -1; e = entryNext[e]) {
+						int j = entryBox[e];
+						if (mayCollide(i, j, categories, masks) && overlaps(i, j, left, top, right, bottom)
+								&& cell(Math.max(left[i], left[j]), inv) == cx && cell(Math.max(top[i], top[j]), inv) == cy)
+							pairs.add(j, i);
+					}
+					addEntry(slot, i);
+				}
+			}
+		}
+
+		// the boxes too large for the grid
+		for (int l = 0; l < largeCount; l++) {
+			int i = large[l];
+			for (int j = 0; j < count; j++) {
+				if (j != i && (!isLarge[j] || j < i) && left[j] != Double.POSITIVE_INFINITY && mayCollide(i, j, categories, masks)
+						&& overlaps(i, j, left, top, right, bottom))
+					pairs.add(Math.min(i, j), Math.max(i, j));
+			}
+		}
+	}
+
+	private static boolean overlaps(int i, int j, double[] left, double[] top, double[] right, double[] bottom) {
+		return right[i] > left[j] && left[i] < right[j] && top[i] < bottom[j] && bottom[i] > top[j];
+	}
+
+	private static boolean mayCollide(int i, int j, int[] categories, int[] masks) {
+		return categories == null || ((categories[i] & masks[j]) != 0 && (categories[j] & masks[i]) != 0);
+	}
+
+	private static int cell(double coordinate, double inv) {
+		return (int) Math.floor(coordinate * inv);
+	}
+
+	/**
+	 * @return the slot of the given cell in the hash table. If the cell isn't in it yet, the slot is claimed for it, and
+	 * an entry has to be added to it right away, since slots without entries are empty.
+	 */
+	private int slot(int cx, int cy) {
+		long key = ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+		int slot = hash(key) & mask;
+		while (heads[slot] != -1) {
+			if (keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		if (used * 2 >= keys.length) {
+			rehash(keys.length * 2);
+			return slot(cx, cy);
+		}
+		keys[slot] = key;
+		used++;
+		return slot;
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private void addEntry(int slot, int box) {
+		if (entryCount == entryBox.length) {
+			entryBox = Arrays.copyOf(entryBox, entryCount * 2);
+			entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+		}
+		entryBox[entryCount] = box;
+		entryNext[entryCount] = heads[slot];
+		heads[slot] = entryCount++;
+	}
+
+	/**
+	 * Empties the grid, making sure the table is big enough for about count cells.
+	 */
+	private void reset(int count) {
+		int capacity = 16;
+		while (capacity < count * 4)
+			capacity <<= 1;
+		if (keys.length < capacity) {
+			keys = new long[capacity];
+			heads = new int[capacity];
+		}
+		mask = keys.length - 1;
+		Arrays.fill(heads, -1);
+		used = 0;
+		entryCount = 0;
+		largeCount = 0;
+		if (isLarge.length < count)
+			isLarge = new boolean[Math.max(count, isLarge.length * 2)];
+		else
+			Arrays.fill(isLarge, 0, count, false);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldHeads = heads;
+		keys = new long[capacity];
+		heads = new int[capacity];
+		Arrays.fill(heads, -1);
+		mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldHeads[i] != -1) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (heads[slot] != -1)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				heads[slot] = oldHeads[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the median of the larger side of each box
+	 */
+	private double medianSize(int count, double[] left, double[] top, double[] right, double[] bottom) {
+		if (count == 0)
+			return 0;
+		if (sizes.length < count)
+			sizes = new double[Math.max(count, sizes.length * 2)];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (left[i] != Double.POSITIVE_INFINITY)
+				sizes[n++] = Math.max(right[i] - left[i], bottom[i] - top[i]);
+		}
+		return n == 0 ? 0 : select(sizes, n, n / 2);
+	}
+
+	/**
+	 * Quickselect: partially sorts the array so that the k-th smallest element is in place, and returns it.
+	 */
+	private static double select(double[] a, int count, int k) {
+		int lo = 0, hi = count - 1;
+		while (lo < hi) {
+			double pivot = a[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (a[i] < pivot)
+					i++;
+				while (a[j] > pivot)
+					j--;
+				if (i <= j) {
+					double t = a[i];
+					a[i] = a[j];
+					a[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+		return a[k];
+	}
+}
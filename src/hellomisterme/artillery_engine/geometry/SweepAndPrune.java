@@ -0,0 +1,280 @@
+package hellomisterme.artillery_engine.geometry;
+
+import java.util.Arrays;
+
+/**
+ * SweepAndPrune is a Broadphase that remembers what it found last time. It keeps the edges of all boxes sorted along the
+ * x axis (and the y axis, if sortY is on), and every call sorts them again with an insertion sort. Things barely move
+ * between ticks, so the edges are almost sorted already and this costs close to O(n).
+ *
+ * Whenever the sort swaps the left edge of one box past the right edge of another, those boxes start overlapping on
+ * that axis, and the other way around they stop. The pairs that overlap on all sorted axes are kept in a set, and the
+ * pairs that joined or left it during the last call are in getAdded() and getRemoved().
+ *
+ * With sortY off, only the x axis is sorted, so the set holds the pairs that overlap on x. findPairs() still only
+ * reports the ones that overlap on both axes, but added and removed are about overlapping on x.
+ *
+ * The set is about the boxes only. Pairs that can't collide because of their categories and masks are kept in it, but
+ * left out of the pairs, added and removed. A change of category takes effect on the pairs right away, but a pair that
+ * was overlapping all along doesn't show up in added or removed because of it.
+ *
+ * Boxes are identified by their index, so the caller should keep the same box at the same index between calls. A box that
+ * moved to another index is still handled correctly, it just costs more sorting.
+ */
+public class SweepAndPrune implements Broadphase {
+
+	/** If true, the y axis is sorted too, so that the set only holds pairs that really overlap */
+	public boolean sortY = true;
+
+	// a slot in the pair set is LIVE if it holds a pair, which is PRESENT if it overlaps now and BEFORE if it did before
+	private static final byte EMPTY = 0, DELETED = 1, LIVE = 2, PRESENT = 4, BEFORE = 8;
+
+	// the edges on each axis, as the box index shifted left once, plus 1 for the right (or bottom) edge
+	private int[] xEdges = new int[0], yEdges = new int[0];
+	private int boxCount = 0;
+	private boolean ySorted = true;
+
+	// open addressing set of pairs, with the smaller index in the high half of the key
+	private long[] keys = new long[16];
+	private byte[] states = new byte[16];
+	private int used = 0, deleted = 0;
+
+	private PairList added = new PairList(), removed = new PairList();
+
+	// the arrays of the current call
+	private double[] left, top, right, bottom;
+	private int[] categories, masks;
+
+	/** @return the pairs that started overlapping during the last call */
+	public PairList getAdded() {
+		return added;
+	}
+
+	/** @return the pairs that stopped overlapping during the last call */
+	public PairList getRemoved() {
+		return removed;
+	}
+
+	@Override
+	public void findPairs(int count, double[] left, double[] top, double[] right, double[] bottom, int[] categories, int[] masks,
+			PairList pairs) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+		this.categories = categories;
+		this.masks = masks;
+		pairs.clear();
+		added.clear();
+		removed.clear();
+
+		if (sortY != ySorted) {
+			// the set means something else now, so start over. Edges in index order with no pairs are consistent with
+			// each other (as if every box was further along than the ones before it), so sorting from there finds them all.
+			xEdges = fillEdges(xEdges, 0, boxCount);
+			yEdges = fillEdges(yEdges, 0, boxCount);
+			for (int slot = 0; slot < keys.length; slot++)
+				states[slot] &= ~PRESENT;
+			ySorted = sortY;
+		}
+		resize(count);
+
+		sort(xEdges, left, right);
+		if (sortY)
+			sort(yEdges, top, bottom);
+
+		for (int slot = 0; slot < keys.length; slot++) {
+			byte state = states[slot];
+			if ((state & LIVE) == 0)
+				continue;
+			long key = keys[slot];
+			int a = (int) (key >>> 32), b = (int) key;
+			boolean present = (state & PRESENT) != 0, before = (state & BEFORE) != 0;
+			boolean collides = mayCollide(a, b);
+			if (present && !before && collides)
+				added.add(a, b);
+			else if (!present && before && collides)
+				removed.add(a, b);
+			if (present) {
+				states[slot] = LIVE | PRESENT | BEFORE;
+				if (collides && (sortY || overlaps(a, b)))
+					pairs.add(a, b);
+			} else {
+				states[slot] = DELETED;
+				used--;
+				deleted++;
+			}
+		}
+		this.left = this.top = this.right = this.bottom = null;
+		this.categories = this.masks = null;
+	}
+
+	/**
+	 * Insertion sort of one axis, keeping the pair set up to date with every swap.
+	 */
+	private void sort(int[] edges, double[] min, double[] max) {
+		int n = boxCount * 2;
+		for (int k = 1; k < n; k++) {
+			int edge = edges[k];
+			boolean edgeIsMax = (edge & 1) != 0;
+			double value = edgeIsMax ? max[edge >> 1] : min[edge >> 1];
+			int j = k - 1;
+			while (j >= 0) {
+				int other = edges[j];
+				boolean otherIsMax = (other & 1) != 0;
+				double otherValue = otherIsMax ? max[other >> 1] : min[other >> 1];
+				// on a tie, right edges go first, since boxes that only touch don't overlap
+				if (!(value < otherValue || (value == otherValue && edgeIsMax && !otherIsMax)))
+					break;
+				int a = edge >> 1, b = other >> 1;
+				if (a != b) {
+					if (!edgeIsMax && otherIsMax) {
+						// a's left edge went past b's right edge, so they might overlap now
+						if (overlapsSorted(a, b))
+							addPair(a, b);
+					} else if (edgeIsMax && !otherIsMax) {
+						// a's right edge went past b's left edge, they don't overlap any more
+						removePair(a, b);
+					}
+				}
+				edges[j + 1] = other;
+				j--;
+			}
+			edges[j + 1] = edge;
+		}
+	}
+
+	private boolean overlapsSorted(int a, int b) {
+		if (sortY)
+			return overlaps(a, b);
+		return right[a] > left[b] && left[a] < right[b];
+	}
+
+	private boolean mayCollide(int a, int b) {
+		return categories == null || ((categories[a] & masks[b]) != 0 && (categories[b] & masks[a]) != 0);
+	}
+
+	private boolean overlaps(int a, int b) {
+		return right[a] > left[b] && left[a] < right[b] && top[a] < bottom[b] && bottom[a] > top[b];
+	}
+
+	/**
+	 * Adds or removes boxes at the end. New boxes are sorted in by the next sort.
+	 */
+	private void resize(int count) {
+		if (count == boxCount)
+			return;
+		if (count > boxCount) {
+			// new boxes start at the end, as if they were further along than everything else
+			xEdges = fillEdges(xEdges, boxCount, count);
+			yEdges = fillEdges(yEdges, boxCount, count);
+		} else {
+			dropEdges(xEdges, count);
+			dropEdges(yEdges, count);
+			// forget the pairs of the boxes that are gone
+			for (int slot = 0; slot < keys.length; slot++) {
+				if ((states[slot] & LIVE) != 0) {
+					long key = keys[slot];
+					if ((int) (key >>> 32) >= count || (int) key >= count)
+						states[slot] &= ~PRESENT;
+				}
+			}
+		}
+		boxCount = count;
+	}
+
+	/**
+	 * Puts the edges of the boxes from from to count at the end of an axis, in index order.
+	 */
+	private int[] fillEdges(int[] edges, int from, int count) {
+		if (edges.length < count * 2)
+			edges = Arrays.copyOf(edges, Math.max(count * 2, edges.length * 2));
+		for (int i = from; i < count; i++) {
+			edges[i * 2] = i << 1;
+			edges[i * 2 + 1] = (i << 1) | 1;
+		}
+		return edges;
+	}
+
+	/**
+	 * Removes the edges of the boxes from count on, keeping the rest in order.
+	 */
+	private void dropEdges(int[] edges, int count) {
+		int kept = 0;
+		for (int k = 0; k < boxCount * 2; k++) {
+			if (edges[k] >> 1 < count)
+				edges[kept++] = edges[k];
+		}
+	}
+
+	private static long key(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	/** @return the slot holding the given key, or -1 */
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (states[slot] != EMPTY) {
+			if ((states[slot] & LIVE) != 0 && keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void addPair(int a, int b) {
+		long key = key(a, b);
+		int slot = find(key);
+		if (slot != -1) {
+			states[slot] |= PRESENT;
+			return;
+		}
+		if ((used + deleted + 1) * 2 > keys.length)
+			rehash();
+		int mask = keys.length - 1;
+		slot = hash(key) & mask;
+		while ((states[slot] & LIVE) != 0)
+			slot = (slot + 1) & mask;
+		if (states[slot] == DELETED)
+			deleted--;
+		keys[slot] = key;
+		states[slot] = LIVE | PRESENT;
+		used++;
+	}
+
+	private void removePair(int a, int b) {
+		int slot = find(key(a, b));
+		if (slot != -1)
+			states[slot] &= ~PRESENT;
+	}
+
+	/**
+	 * Rebuilds the set without its deleted slots, growing it if it is getting full.
+	 */
+	private void rehash() {
+		long[] oldKeys = keys;
+		byte[] oldStates = states;
+		int capacity = keys.length;
+		while (used * 4 >= capacity)
+			capacity *= 2;
+		keys = new long[capacity];
+		states = new byte[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if ((oldStates[i] & LIVE) != 0) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (states[slot] != EMPTY)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				states[slot] = oldStates[i];
+			}
+		}
+		deleted = 0;
+	}
+}
@@ -0,0 +1,61 @@
+package hellomisterme.artillery_engine;
+
+import hellomisterme.artillery_engine.components.physics.FreeBody;
+import hellomisterme.artillery_engine.geometry.Circle;
+import hellomisterme.artillery_engine.util.Vector;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that a World with a few thousand bodies doesn't allocate anything while it ticks, once its buffers have grown
+ * to fit. There is no test framework, so run its main() with the game's classes on the classpath. It exits with 1 if
+ * the ticks allocated more than a few stray bytes each.
+ *
+ * The bytes are counted by the JVM's ThreadMXBean, which only HotSpot based JVMs have.
+ */
+public class TickAllocationTest {
+
+	private static final int BODIES = 3000;
+	private static final int WARMUP_TICKS = 300, MEASURED_TICKS = 300;
+	/**
+	 * The buffers only grow when the world gets busier than it has been, like more contacts or more bodies on rails than
+	 * ever before, which happens every few hundred ticks. Even one iterator per tick is more than this.
+	 */
+	private static final long ALLOWED_BYTES_PER_TICK = 16;
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("Skipped, this JVM can't count allocated bytes");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		World world = new World(800, 600);
+		world.init();
+		Random random = new Random(1);
+		for (int i = 0; i < BODIES; i++) {
+			double mass = random.nextDouble() * 3 + 0.1;
+			Entity e = new Entity(Circle.fromArea(mass * 1000), FreeBody.create(new Vector(random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1), mass, 0));
+			e.transform.position.x = random.nextGaussian() * 5000;
+			e.transform.position.y = random.nextGaussian() * 5000;
+			world.addEntity(e);
+		}
+
+		for (int i = 0; i < WARMUP_TICKS; i++)
+			world.tick();
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < MEASURED_TICKS; i++)
+			world.tick();
+		long perTick = (threads.getThreadAllocatedBytes(thread) - before) / MEASURED_TICKS;
+
+		System.out.println(perTick + " bytes allocated per tick with " + BODIES + " bodies");
+		if (perTick > ALLOWED_BYTES_PER_TICK) {
+			System.out.println("FAILED, allowed " + ALLOWED_BYTES_PER_TICK);
+			System.exit(1);
+		}
+	}
+}